@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.entities.BatchResult;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Gathers the responses to a batch of commands into a single
+ * {@link CompletableFuture} of a {@link BatchResult}.
+ *
+ * @param <K> The type identifying each command in the batch.
+ */
+final class BatchCollector<K>
+{
+    private final Map<K, Packet> succeeded = new LinkedHashMap<>();
+    private final Map<K, String> failed = new LinkedHashMap<>();
+    private final CompletableFuture<BatchResult<K>> future = new CompletableFuture<>();
+    private int remaining;
+
+    /**
+     * @param size The number of commands in the batch.
+     */
+    BatchCollector(int size)
+    {
+        this.remaining = size;
+        if(size == 0)
+            complete();
+    }
+
+    /**
+     * Creates the {@link Callback} for a single command of the batch.
+     *
+     * @param key The key identifying the command.
+     *
+     * @return A Callback recording the command's outcome.
+     */
+    Callback callbackFor(K key)
+    {
+        return new Callback(p -> succeed(key, p), m -> fail(key, m));
+    }
+
+    void succeed(K key, Packet packet)
+    {
+        synchronized(this)
+        {
+            succeeded.put(key, packet);
+            if(--remaining != 0)
+                return;
+        }
+        complete();
+    }
+
+    void fail(K key, String message)
+    {
+        synchronized(this)
+        {
+            failed.put(key, message == null ? "Unknown error" : message);
+            if(--remaining != 0)
+                return;
+        }
+        complete();
+    }
+
+    CompletableFuture<BatchResult<K>> getFuture()
+    {
+        return future;
+    }
+
+    private void complete()
+    {
+        BatchResult<K> result;
+        synchronized(this)
+        {
+            result = new BatchResult<>(new LinkedHashMap<>(succeeded), new LinkedHashMap<>(failed));
+        }
+        future.complete(result);
+    }
+}
@@ -15,21 +15,43 @@
  */
 package com.jagrosh.discordipc;
 
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.jagrosh.discordipc.entities.*;
 import com.jagrosh.discordipc.entities.Packet.OpCode;
 import com.jagrosh.discordipc.entities.pipe.Pipe;
 import com.jagrosh.discordipc.entities.pipe.PipeStatus;
+import com.jagrosh.discordipc.entities.pipe.SessionRecorder;
+import com.jagrosh.discordipc.entities.pipe.Transport;
+import com.jagrosh.discordipc.exceptions.CommandFailedException;
 import com.jagrosh.discordipc.exceptions.NoDiscordClientException;
+import com.jagrosh.discordipc.jfr.CallbackEvent;
+import com.jagrosh.discordipc.jfr.DisconnectEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a Discord IPC Client that can send and receive
@@ -43,7 +65,7 @@ import java.util.HashMap;
  * be inactive awaiting a call to {@link #connect(DiscordBuild...)}.<br>
  * After the call, this client can send and receive Rich Presence data
  * to and from discord via {@link #sendRichPresence(RichPresence)} and
- * {@link #setListener(IPCListener)} respectively.<p>
+ * {@link #addListener(IPCListener)} respectively.<p>
  *
  * Please be mindful that the client created is initially unconnected,
  * and calling any methods that exchange data between this client and
@@ -57,11 +79,47 @@ import java.util.HashMap;
 public final class IPCClient implements Closeable
 {
     private static final Logger LOGGER = LoggerFactory.getLogger(IPCClient.class);
+    private static final String JOIN_INVITE = "SEND_ACTIVITY_JOIN_INVITE";
+    private static final String CLOSE_REQUEST = "CLOSE_ACTIVITY_REQUEST";
     private final long clientId;
-    private final HashMap<String,Callback> callbacks = new HashMap<>();
+    private final Map<String,Callback> callbacks = new ConcurrentHashMap<>();
+    private final IPCMetrics metrics;
     private volatile Pipe pipe;
-    private IPCListener listener = null;
+    private volatile ConnectionInfo connectionInfo = null;
+    private final ListenerDispatcher dispatcher;
+    private final IPCEventPublisher eventPublisher;
+    private final SubscriptionManager subscriptions;
+    private final JoinRequestGate joinRequests;
+    private final ResponseCache responses;
     private Thread readThread = null;
+    private long pingIntervalNanos = 0;
+    private ScheduledFuture<?> pingTask = null;
+    private volatile String pingNonce = null;
+    private volatile long pingSentNanos = 0;
+    private long livenessTimeoutNanos = 0;
+    private ScheduledFuture<?> watchdogTask = null;
+    private volatile IOException livenessFailure = null;
+    private volatile SessionRecorder recorder = null;
+    private boolean brokered = false;
+    private int brokerPriority = 0;
+    private volatile PresenceBroker broker = null;
+    private boolean hotStandby = false;
+    private volatile JsonElement lastActivity = null;
+    private DiscordBuild[] preferredOrder = null;
+    private volatile Transport transport = null;
+    private Transport connectedTransport = null;
+    private long idleTimeoutNanos = 0;
+    private ScheduledFuture<?> idleTask = null;
+    private volatile long lastUsedNanos = System.nanoTime();
+    private volatile boolean parked = false;
+    private String parkedLocation = null;
+    private final Object resuming = new Object();
+    private final Object scheduling = new Object();
+    private PresenceRotation rotation = null;
+    private volatile PresenceJournal journal = null;
+    private final List<Deferred> deferred = new ArrayList<>();
+    private boolean presenceDeferred = false;
+    private volatile boolean connecting = false;
     
     /**
      * Constructs a new IPCClient using the provided {@code clientId}.<br>
@@ -73,13 +131,22 @@ public final class IPCClient implements Closeable
     public IPCClient(long clientId)
     {
         this.clientId = clientId;
+        this.metrics = new IPCMetrics(clientId, callbacks::size);
+        this.dispatcher = new ListenerDispatcher(metrics);
+        this.eventPublisher = new IPCEventPublisher(dispatcher.getRegistry());
+        this.joinRequests = new JoinRequestGate(metrics);
+        this.responses = new ResponseCache(this::sendQuery);
+        this.subscriptions = new SubscriptionManager(this::sendSubscription, this::journalSubscriptions);
     }
     
     /**
      * Sets this IPCClient's {@link IPCListener} to handle received events.<p>
      *
-     * A single IPCClient can only have one of these set at any given time.<br>
-     * Setting this {@code null} will remove the currently active one.<p>
+     * This replaces every listener currently registered, including those
+     * added with {@link #addListener(IPCListener)}.<br>
+     * Setting this {@code null} will remove all of them.<br>
+     * Subscribers of the {@link #getEventPublisher() event publisher}
+     * are not affected.<p>
      *
      * This can be set safely before a call to {@link #connect(DiscordBuild...)}
      * is made.
@@ -90,292 +157,1857 @@ public final class IPCClient implements Closeable
      */
     public void setListener(IPCListener listener)
     {
-        this.listener = listener;
-        if (pipe != null)
-            pipe.setListener(listener);
+        dispatcher.getRegistry().clear();
+        if(listener != null)
+            dispatcher.getRegistry().add(listener);
+    }
+
+    /**
+     * Adds an {@link IPCListener} to handle received events, alongside
+     * any others already registered on this IPCClient.<p>
+     *
+     * Listeners are only called for the events whose methods they
+     * override, in the order they were added.<br>
+     * Adding the same listener more than once does nothing.<p>
+     *
+     * This can be called safely before a call to {@link #connect(DiscordBuild...)}
+     * is made.
+     *
+     * @param listener The {@link IPCListener} to add.
+     *
+     * @see IPCListener
+     */
+    public void addListener(IPCListener listener)
+    {
+        dispatcher.getRegistry().add(listener);
+    }
+
+    /**
+     * Removes an {@link IPCListener} previously registered with
+     * {@link #addListener(IPCListener)} or {@link #setListener(IPCListener)}.
+     *
+     * @param listener The {@link IPCListener} to remove.
+     */
+    public void removeListener(IPCListener listener)
+    {
+        dispatcher.getRegistry().remove(listener);
+    }
+
+    /**
+     * Adds an {@link IPCListener} the library itself depends on, which
+     * {@link #setListener(IPCListener)} does not replace.<br>
+     * It is removed with {@link #removeListener(IPCListener)}.
+     *
+     * @param listener The {@link IPCListener} to add.
+     */
+    void addInternalListener(IPCListener listener)
+    {
+        dispatcher.getRegistry().addInternal(listener);
+    }
+
+    /**
+     * Gets the {@link IPCEventPublisher} streaming this IPCClient's
+     * events as {@link IPCEvent IPCEvents}.<p>
+     *
+     * This is an alternative to {@link #addListener(IPCListener)} for
+     * reactive consumers, and honours each subscriber's demand with a
+     * bounded buffer instead of calling into it for every event.
+     *
+     * @return The IPCClient's {@link IPCEventPublisher}.
+     */
+    public IPCEventPublisher getEventPublisher()
+    {
+        return eventPublisher;
+    }
+
+    /**
+     * Sets the {@link Executor} that {@link IPCListener} events and
+     * {@link Callback Callbacks} are handled on.<p>
+     *
+     * By default these run on the IPCClient's reading thread, so a slow
+     * listener delays every response read after it. With an Executor set,
+     * the reading thread only queues each event and goes back to reading.
+     * Events of the same kind (for example every
+     * {@link IPCListener#onActivityJoinRequest(IPCClient, String, User) join request},
+     * or every Callback) are still handled one at a time and in the order
+     * they were received, but different kinds may run concurrently.<p>
+     *
+     * Setting this {@code null} returns to handling events inline.
+     * Time spent queued is recorded in {@link IPCMetrics#getDispatchLag()}.
+     *
+     * @param executor The {@link Executor} to handle events on, or {@code null}.
+     */
+    public void setDispatchExecutor(Executor executor)
+    {
+        dispatcher.setExecutor(executor);
+    }
+
+    /**
+     * Limits how many {@link IPCListener#onActivityJoinRequest(IPCClient, String, User)
+     * join requests} reach the listeners during a burst.<p>
+     *
+     * A request from a user whose previous request was let through less than
+     * {@code window} ago is dropped as a duplicate. Requests let through wait
+     * until the listeners get to them, and at most {@code maxPending} may be
+     * waiting; once that many are, the {@link DropPolicy} decides which one is
+     * dropped. The queue only fills up when a
+     * {@link #setDispatchExecutor(Executor) dispatch executor} is set, as otherwise
+     * each request is handled before the next one is read.<br>
+     * The {@link User} of each of the last {@value JoinRequestGate#USER_CACHE_SIZE}
+     * requesters is reused for as long as their profile doesn't change.<p>
+     *
+     * By default the window is 10 seconds, and up to 64 requests may wait, dropping the
+     * oldest first. Dropped requests are counted in {@link IPCMetrics#getDuplicateJoinRequests()}
+     * and {@link IPCMetrics#getDroppedJoinRequests()}.
+     *
+     * @param window How long a user's requests are deduplicated for, or {@code 0} to let every one through.
+     * @param unit The {@link TimeUnit} of the window.
+     * @param maxPending The most requests that may wait for the listeners.
+     * @param policy Which request to drop when the queue is full.
+     */
+    public void setJoinRequestLimits(long window, TimeUnit unit, int maxPending, DropPolicy policy)
+    {
+        if(maxPending < 0)
+            throw new IllegalArgumentException("maxPending must not be negative");
+        joinRequests.setLimits(Math.max(0, unit.toNanos(window)), maxPending, policy);
+    }
+    
+    /**
+     * Sets a {@link SessionRecorder} to capture every frame exchanged with
+     * Discord, for later replay with {@link com.jagrosh.discordipc.entities.pipe.SessionReplay SessionReplay}.<p>
+     *
+     * Capturing starts straight away if connected, and otherwise once the
+     * handshake of the next connection completes. It carries on across
+     * reconnects until this is set {@code null}. Closing the recorder is
+     * left to the caller.
+     *
+     * @param recorder The recorder to capture to, or {@code null} to stop capturing.
+     */
+    public void setSessionRecorder(SessionRecorder recorder)
+    {
+        this.recorder = recorder;
+        Pipe current = pipe;
+        if(current != null)
+            current.setRecorder(recorder);
+    }
+    
+    /**
+     * Sets whether this IPCClient shares its connection to Discord with other
+     * processes on the same machine using the same client ID.<p>
+     *
+     * When enabled, {@link #connect(DiscordBuild...)} first looks for a
+     * process already connected in this mode, and if there is one talks to
+     * Discord through it. Otherwise it connects to Discord as usual and
+     * serves the connection to the processes that come after it.<br>
+     * Instead of overwriting each other, each process's {@link RichPresence}
+     * is kept, and Discord shows the one with the highest priority, the most
+     * recently set one winning ties. When the serving process disconnects,
+     * the others are disconnected as well and may connect again.<p>
+     *
+     * This takes effect on the next call to {@link #connect(DiscordBuild...)}.
+     *
+     * @param brokered Whether to share the connection.
+     * @param priority The priority of this process's RichPresence.
+     */
+    public void setBrokered(boolean brokered, int priority)
+    {
+        this.brokered = brokered;
+        this.brokerPriority = priority;
+    }
+
+    /**
+     * Sets whether to keep a second Discord build connected as a standby.<p>
+     *
+     * When enabled, {@link #connect(DiscordBuild...)} probes every candidate
+     * rather than stopping at the first preferred build, and keeps the next
+     * most preferred build it finds handshaken. If the connection to the
+     * primary build is then lost, this IPCClient switches to the standby
+     * straight away, restores its subscriptions and resends its last
+     * {@link RichPresence}, without any rediscovery and without notifying
+     * {@link IPCListener#onDisconnect(IPCClient, Throwable)}. Commands still
+     * awaiting a response from the lost build are failed.<br>
+     * Only one standby is kept per connection, so a second loss disconnects
+     * as usual.<p>
+     *
+     * This takes effect on the next call to {@link #connect(DiscordBuild...)}.
+     *
+     * @param hotStandby Whether to keep a standby connection.
+     */
+    public void setHotStandby(boolean hotStandby)
+    {
+        this.hotStandby = hotStandby;
+    }
+
+    /**
+     * Sets a {@link PresenceJournal} to keep this IPCClient's last acknowledged
+     * {@link RichPresence} and its subscriptions in, so they survive a restart.<p>
+     *
+     * On each call to {@link #connect(DiscordBuild...)}, the journaled subscriptions
+     * not already held are subscribed to again, and unless a RichPresence has
+     * already been sent, the journaled one is resent exactly as it was, original
+     * start timestamp included. From then on every change is journaled.<br>
+     * Restored subscriptions take one reference each, as though
+     * {@link #subscribe(Event)} had been called. Closing the journal is left
+     * to the caller.
+     *
+     * @param journal The journal to keep, or {@code null} to stop journaling.
+     */
+    public void setPresenceJournal(PresenceJournal journal)
+    {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets the {@link Transport} used to reach Discord, such as an
+     * in-process fake for testing.<p>
+     *
+     * By default, or when set to {@code null}, {@link Transport#load()} picks one:
+     * the first supported Transport provided through {@link java.util.ServiceLoader},
+     * or else the IPC socket or named pipe of the operating system.<br>
+     * This takes effect on the next call to {@link #connect(DiscordBuild...)}.
+     *
+     * @param transport The Transport to use, or {@code null} for the default.
+     */
+    public void setTransport(Transport transport)
+    {
+        this.transport = transport;
+    }
+
+    /**
+     * Opens the connection between the IPCClient and Discord.<p>
+     *
+     * <b>This must be called before any data is exchanged between the
+     * IPCClient and Discord.</b>
+     *
+     * @param preferredOrder the priority order of client builds to connect to
+     *
+     * @throws IllegalStateException
+     *         There is an open connection on this IPCClient, or one is already being made.
+     * @throws NoDiscordClientException
+     *         No client of the provided {@link DiscordBuild build type}(s) was found.
+     */
+    public void connect(DiscordBuild... preferredOrder) throws NoDiscordClientException
+    {
+        startConnecting();
+        try
+        {
+            connectNow(preferredOrder);
+        }
+        catch(NoDiscordClientException | RuntimeException ex)
+        {
+            failDeferred(ex);
+            throw ex;
+        }
+        flushDeferred();
+    }
+
+    /**
+     * Opens the connection between the IPCClient and Discord in the
+     * background, without blocking the calling thread.<p>
+     *
+     * Until Discord answers the handshake, {@link #getStatus()} is
+     * {@link PipeStatus#CONNECTING}. Calls to {@link #sendRichPresence(RichPresence, Callback)},
+     * {@link #subscribe(Event, Callback)} and {@link #subscribeAll(EnumSet)} made
+     * meanwhile are queued rather than throwing, and sent in order as soon as
+     * the connection is ready, before anything sent afterwards. If the connection
+     * cannot be made, their {@link Callback Callbacks} are failed.<p>
+     *
+     * Discovery blocks on every candidate, so it runs on a thread of its own.
+     *
+     * @param preferredOrder the priority order of client builds to connect to
+     *
+     * @return A future completed with this IPCClient once it is connected, or
+     *         exceptionally with a {@link NoDiscordClientException} if no client
+     *         of the provided {@link DiscordBuild build type}(s) was found.
+     *
+     * @throws IllegalStateException
+     *         There is an open connection on this IPCClient, or one is already being made.
+     */
+    public CompletableFuture<IPCClient> connectAsync(DiscordBuild... preferredOrder)
+    {
+        return connectAsync(task -> {
+            Thread connector = new Thread(task, "IPCClient Connect");
+            connector.setDaemon(true);
+            connector.start();
+        }, preferredOrder);
+    }
+
+    /**
+     * Opens the connection between the IPCClient and Discord in the
+     * background, as {@link #connectAsync(DiscordBuild...)} does, doing the
+     * discovery and handshake on the given {@link Executor}.<p>
+     *
+     * Discovery blocks on every candidate, so the Executor should be
+     * one meant for blocking work.
+     *
+     * @param executor The Executor to connect on.
+     * @param preferredOrder the priority order of client builds to connect to
+     *
+     * @return A future completed with this IPCClient once it is connected, or
+     *         exceptionally with a {@link NoDiscordClientException} if no client
+     *         of the provided {@link DiscordBuild build type}(s) was found.
+     *
+     * @throws IllegalStateException
+     *         There is an open connection on this IPCClient, or one is already being made.
+     */
+    public CompletableFuture<IPCClient> connectAsync(Executor executor, DiscordBuild... preferredOrder)
+    {
+        startConnecting();
+        CompletableFuture<IPCClient> future = new CompletableFuture<>();
+        Runnable connect = () -> {
+            try
+            {
+                connectNow(preferredOrder);
+            }
+            catch(NoDiscordClientException | RuntimeException ex)
+            {
+                failDeferred(ex);
+                future.completeExceptionally(ex);
+                return;
+            }
+            flushDeferred();
+            future.complete(this);
+        };
+        try
+        {
+            executor.execute(connect);
+        }
+        catch(RuntimeException ex)
+        {
+            failDeferred(ex);
+            throw ex;
+        }
+        return future;
+    }
+
+    /**
+     * Marks this IPCClient as connecting, so sends are queued until it is done.
+     */
+    private void startConnecting()
+    {
+        synchronized(deferred)
+        {
+            if(connecting)
+                throw new IllegalStateException(String.format("IPCClient (ID: %d) is already connecting!", clientId));
+            checkConnected(false);
+            connecting = true;
+        }
+    }
+
+    private void connectNow(DiscordBuild... preferredOrder) throws NoDiscordClientException
+    {
+        checkConnected(false);
+        callbacks.clear();
+        metrics.clearInflight();
+        if(pipe != null)
+            metrics.recordReconnect();
+        pipe = null;
+        broker = null;
+        this.preferredOrder = preferredOrder;
+        connectedTransport = transport != null ? transport : Transport.load();
+
+        attach(discover(preferredOrder));
+        metrics.register();
+        restoreJournal();
+
+        LOGGER.debug("Client is now connected and ready!");
+        dispatcher.onReady(this);
+        startReading();
+        schedulePing();
+        scheduleWatchdog();
+    }
+    
+    /**
+     * Sends a {@link RichPresence} to the Discord client.<p>
+     *
+     * This is where the IPCClient will officially display
+     * a Rich Presence in the Discord client.<p>
+     *
+     * Sending this again will overwrite the last provided
+     * {@link RichPresence}.
+     *
+     * @param presence The {@link RichPresence} to send.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see RichPresence
+     */
+    public void sendRichPresence(RichPresence presence)
+    {
+        sendRichPresence(presence, null);
+    }
+    
+    /**
+     * Sends a {@link RichPresence} to the Discord client.<p>
+     *
+     * This is where the IPCClient will officially display
+     * a Rich Presence in the Discord client.<p>
+     *
+     * Sending this again will overwrite the last provided
+     * {@link RichPresence}.
+     *
+     * A RichPresence that is not {@link RichPresence#isValid() valid} is never
+     * sent, and fails the {@link Callback} straight away with its
+     * {@link RichPresence#getViolations() violations}. This is only checked
+     * once the IPCClient is known to be connected or connecting.
+     *
+     * @param presence The {@link RichPresence} to send.
+     * @param callback A {@link Callback} to handle success or error
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method, whether or not the RichPresence is valid.
+     *
+     * @see RichPresence
+     */
+    public void sendRichPresence(RichPresence presence, Callback callback)
+    {
+        if(!connecting)
+            checkConnected(true);
+        if(presence != null && !presence.isValid())
+        {
+            // Discord would only reject it, so don't spend a round trip finding out
+            LOGGER.warn("Not sending a RichPresence Discord would reject: {}", presence.getViolations());
+            metrics.recordDroppedUpdate();
+            if(callback != null)
+                dispatcher.fail(callback, "Invalid RichPresence: " + presence.getViolations());
+            return;
+        }
+        JsonObject activity = presence == null ? null : presence.toJson();
+        if(defer(() -> sendPresence(activity, callback), Collections.singletonList(callback), true))
+            return;
+        sendPresence(activity, callback);
+    }
+
+    /**
+     * Shows a sequence of {@link RichPresence RichPresences} one after another,
+     * such as rotating tips or switching state when a countdown ends.<p>
+     *
+     * The schedule starts straight away and is run on a timer shared by every
+     * IPCClient. A step that would show the same presence Discord already shows
+     * sends nothing. Steps due while this IPCClient is disconnected are skipped,
+     * and a step due while it is idle reconnects it, like any other send.<br>
+     * Setting another schedule replaces this one, and setting {@code null} or
+     * {@link #close() closing} this IPCClient stops it, leaving the current
+     * presence shown.
+     *
+     * @param schedule The schedule to run, or {@code null} to stop the current one.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    public void setPresenceSchedule(PresenceSchedule schedule)
+    {
+        if(schedule != null)
+            checkConnected(true);
+        synchronized(scheduling)
+        {
+            if(rotation != null)
+                rotation.cancel();
+            rotation = schedule == null ? null : new PresenceRotation(this, schedule);
+            if(rotation != null)
+                rotation.start();
+        }
+    }
+
+    /**
+     * Shows a step of a {@link PresenceSchedule}, unless Discord already shows it.<br>
+     * The step is dropped if its schedule has been replaced or stopped; checking and
+     * sending hold the same lock as {@link #setPresenceSchedule(PresenceSchedule)},
+     * so a stale step can never be sent after the schedule replacing it.
+     *
+     * @param caller The rotation the step belongs to.
+     * @param activity The JSON activity of the step.
+     */
+    void showScheduled(PresenceRotation caller, JsonObject activity)
+    {
+        synchronized(scheduling)
+        {
+            if(rotation != caller)
+                return;
+            if(activity.equals(lastActivity))
+            {
+                metrics.recordCoalescedUpdate();
+                return;
+            }
+            sendPresence(activity, null);
+        }
+    }
+
+    private void sendPresence(JsonObject activity, Callback callback)
+    {
+        ensureConnected(false);
+        LOGGER.debug("Sending RichPresence to discord: {}", activity);
+
+        PresenceJournal j = journal;
+        if(j != null)
+        {
+            Callback acked = callback;
+            callback = new Callback(p -> {
+                j.recordActivity(activity);
+                if(acked != null)
+                    acked.succeed(p);
+            }, message -> {
+                if(acked != null)
+                    acked.fail(message);
+            });
+        }
+
+        lastActivity = activity == null ? JsonNull.INSTANCE : activity;
+        PresenceBroker b = broker;
+        if(b != null)
+            b.setOwnerActivity(activity, callback);
+        else
+            sendActivity(getPID(), activity, callback);
+    }
+
+    /**
+     * Sends a {@code SET_ACTIVITY} straight to Discord.
+     *
+     * @param pid The process the activity belongs to.
+     * @param activity The activity, or {@code null} to clear it.
+     * @param callback The callback for the response, or {@code null}.
+     */
+    void sendActivity(long pid, JsonElement activity, Callback callback)
+    {
+        JsonObject payload = new JsonObject();
+        payload.addProperty("cmd", "SET_ACTIVITY");
+
+        JsonObject args = new JsonObject();
+        args.addProperty("pid", pid);
+        args.add("activity", activity);
+        payload.add("args", args);
+
+        pipe.send(OpCode.FRAME, payload, callback);
+    }
+
+    /**
+     * Sends a command from a {@link PresenceBroker} peer to Discord as it is.
+     *
+     * @param payload The command, its nonce is replaced.
+     * @param callback The callback for the response.
+     */
+    void forward(JsonObject payload, Callback callback)
+    {
+        Pipe current = pipe;
+        if(current == null || current.getStatus() != PipeStatus.CONNECTED)
+            callback.fail("IPCClient is not connected");
+        else
+            current.send(OpCode.FRAME, payload, callback);
+    }
+
+    /**
+     * Adds an event {@link Event} to this IPCClient.<br>
+     * Subscriptions are reference-counted, so only the first time
+     * an {@link Event} is added does it reach Discord; adding it
+     * again only takes another reference, which should be released
+     * with {@link #unsubscribe(Event)} when no longer needed.<p>
+     *
+     * Active subscriptions are restored automatically whenever
+     * this IPCClient {@link #connect(DiscordBuild...) connects} again.
+     *
+     * @param sub The event {@link Event} to add.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    public void subscribe(Event sub)
+    {
+        subscribe(sub, null);
+    }
+    
+    /**
+     * Adds an event {@link Event} to this IPCClient.<br>
+     * Subscriptions are reference-counted, so only the first time
+     * an {@link Event} is added does it reach Discord; adding it
+     * again only takes another reference, which should be released
+     * with {@link #unsubscribe(Event, Callback)} when no longer needed.<p>
+     *
+     * The {@link Callback} is completed with Discord's response to the
+     * first reference, even if that response arrived earlier.<br>
+     * Active subscriptions are restored automatically whenever
+     * this IPCClient {@link #connect(DiscordBuild...) connects} again.
+     *
+     * @param sub The event {@link Event} to add.
+     * @param callback The {@link Callback} to handle success or failure
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    public void subscribe(Event sub, Callback callback)
+    {
+        if(!sub.isSubscribable())
+            throw new IllegalStateException("Cannot subscribe to " + sub + " event!");
+        if(defer(() -> subscriptions.subscribe(sub, callback), Collections.singletonList(callback)))
+            return;
+        ensureConnected(true);
+        subscriptions.subscribe(sub, callback);
+    }
+
+    /**
+     * Adds several event {@link Event Events} to this IPCClient at once.<p>
+     *
+     * Every {@code SUBSCRIBE} needed is encoded into a single write, so
+     * Discord answers them all within one round trip rather than one
+     * after another. Each event takes a reference exactly as it would
+     * through {@link #subscribe(Event)}.<p>
+     *
+     * The returned future completes once every event has been answered,
+     * and reports which ones failed instead of completing exceptionally.
+     *
+     * @param subs The event {@link Event Events} to add.
+     *
+     * @return A future of the {@link BatchResult} for each event.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method, or any event cannot be subscribed to.
+     */
+    public CompletableFuture<BatchResult<Event>> subscribeAll(EnumSet<Event> subs)
+    {
+        for(Event sub : subs)
+            if(!sub.isSubscribable())
+                throw new IllegalStateException("Cannot subscribe to " + sub + " event!");
+        BatchCollector<Event> collector = new BatchCollector<>(subs.size());
+        Map<Event, Callback> callbacks = new EnumMap<>(Event.class);
+        for(Event sub : subs)
+            callbacks.put(sub, collector.callbackFor(sub));
+        if(defer(() -> subscriptions.subscribeAll(callbacks), callbacks.values()))
+            return collector.getFuture();
+        ensureConnected(true);
+        subscriptions.subscribeAll(callbacks);
+        return collector.getFuture();
+    }
+
+    /**
+     * Accepts a {@link IPCListener#onActivityJoinRequest(IPCClient, String, User) join request},
+     * inviting the user who sent it to join.
+     *
+     * @param userId The ID of the user who asked to join.
+     * @param callback A {@link Callback} to handle success or error, or {@code null}.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    public void sendJoinInvite(long userId, Callback callback)
+    {
+        sendJoinReplies(JOIN_INVITE, Collections.singletonList(userId), Collections.singletonList(callback));
+    }
+
+    /**
+     * Rejects a {@link IPCListener#onActivityJoinRequest(IPCClient, String, User) join request}.
+     *
+     * @param userId The ID of the user who asked to join.
+     * @param callback A {@link Callback} to handle success or error, or {@code null}.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    public void closeJoinRequest(long userId, Callback callback)
+    {
+        sendJoinReplies(CLOSE_REQUEST, Collections.singletonList(userId), Collections.singletonList(callback));
+    }
+
+    /**
+     * Accepts the join requests of several users at once.<p>
+     *
+     * Every invite is written to Discord in a single write, so answering
+     * many requests costs one round trip rather than one each.
+     *
+     * @param userIds The IDs of the users who asked to join.
+     *
+     * @return A future completed once Discord has answered every invite,
+     *         with the outcome for each user ID.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    public CompletableFuture<BatchResult<Long>> sendJoinInvites(Collection<Long> userIds)
+    {
+        return sendJoinReplies(JOIN_INVITE, userIds);
+    }
+
+    /**
+     * Rejects the join requests of several users at once.<p>
+     *
+     * Every rejection is written to Discord in a single write, so answering
+     * many requests costs one round trip rather than one each.
+     *
+     * @param userIds The IDs of the users who asked to join.
+     *
+     * @return A future completed once Discord has answered every rejection,
+     *         with the outcome for each user ID.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    public CompletableFuture<BatchResult<Long>> closeJoinRequests(Collection<Long> userIds)
+    {
+        return sendJoinReplies(CLOSE_REQUEST, userIds);
+    }
+
+    /**
+     * Gets a user by their ID, with {@code GET_USER}.
+     *
+     * @param userId The ID of the user.
+     *
+     * @return A future completed with the user, or with a
+     *         {@link CommandFailedException} if Discord answers with an error.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public CompletableFuture<User> getUser(long userId)
+    {
+        JsonObject args = new JsonObject();
+        args.addProperty("id", Long.toString(userId));
+        return query("GET_USER", args).thenApply(data -> {
+            JsonObject u = data.getAsJsonObject();
+            return new User(
+                u.get("username").getAsString(),
+                u.get("discriminator").getAsString(),
+                Long.parseLong(u.get("id").getAsString()),
+                Utils.getJsonStringOrDefault(u, "avatar", null)
+            );
+        });
+    }
+
+    /**
+     * Gets a guild, with {@code GET_GUILD}.
+     *
+     * @param guildId The ID of the guild.
+     *
+     * @return A future completed with the guild's {@code id}, {@code name},
+     *         {@code icon_url} and {@code members}, or with a
+     *         {@link CommandFailedException} if Discord answers with an error.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public CompletableFuture<JsonObject> getGuild(long guildId)
+    {
+        JsonObject args = new JsonObject();
+        args.addProperty("guild_id", Long.toString(guildId));
+        return query("GET_GUILD", args).thenApply(JsonElement::getAsJsonObject);
+    }
+
+    /**
+     * Gets the guilds the user is in, with {@code GET_GUILDS}.
+     *
+     * @return A future completed with the {@code id} and {@code name} of each guild,
+     *         or with a {@link CommandFailedException} if Discord answers with an error.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public CompletableFuture<JsonArray> getGuilds()
+    {
+        return query("GET_GUILDS", new JsonObject()).thenApply(data -> data.getAsJsonObject().getAsJsonArray("guilds"));
+    }
+
+    /**
+     * Gets a channel, with {@code GET_CHANNEL}.
+     *
+     * @param channelId The ID of the channel.
+     *
+     * @return A future completed with the channel, or with a
+     *         {@link CommandFailedException} if Discord answers with an error.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public CompletableFuture<JsonObject> getChannel(long channelId)
+    {
+        JsonObject args = new JsonObject();
+        args.addProperty("channel_id", Long.toString(channelId));
+        return query("GET_CHANNEL", args).thenApply(JsonElement::getAsJsonObject);
+    }
+
+    /**
+     * Gets the channels of a guild, with {@code GET_CHANNELS}.
+     *
+     * @param guildId The ID of the guild.
+     *
+     * @return A future completed with the {@code id}, {@code name} and {@code type}
+     *         of each channel, or with a {@link CommandFailedException} if Discord
+     *         answers with an error.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public CompletableFuture<JsonArray> getChannels(long guildId)
+    {
+        JsonObject args = new JsonObject();
+        args.addProperty("guild_id", Long.toString(guildId));
+        return query("GET_CHANNELS", args).thenApply(data -> data.getAsJsonObject().getAsJsonArray("channels"));
+    }
+
+    /**
+     * Gets the voice channel the user is in, with {@code GET_SELECTED_VOICE_CHANNEL}.
+     *
+     * @return A future completed with the channel, or {@code null} if the user
+     *         is in none, or with a {@link CommandFailedException} if Discord
+     *         answers with an error.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public CompletableFuture<JsonObject> getSelectedVoiceChannel()
+    {
+        return query("GET_SELECTED_VOICE_CHANNEL", new JsonObject())
+                .thenApply(data -> data.isJsonObject() ? data.getAsJsonObject() : null);
+    }
+
+    /**
+     * Gets the user's voice settings, with {@code GET_VOICE_SETTINGS}.
+     *
+     * @return A future completed with the settings, or with a
+     *         {@link CommandFailedException} if Discord answers with an error.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public CompletableFuture<JsonObject> getVoiceSettings()
+    {
+        return query("GET_VOICE_SETTINGS", new JsonObject()).thenApply(JsonElement::getAsJsonObject);
+    }
+
+    /**
+     * Sets how the responses to read-only commands, such as {@link #getGuilds()},
+     * are cached.<p>
+     *
+     * A response is reused until it is {@code ttl} old, and at most {@code maxEntries}
+     * responses are kept, evicting the least recently used first. Identical requests
+     * made while one is still awaiting its response always share it, even with
+     * caching disabled.<br>
+     * Responses are not invalidated by Discord's events, so a cached response may be
+     * up to {@code ttl} out of date. They are dropped when they expire, whenever this
+     * IPCClient connects again, and by {@link #invalidateResponseCache()}.<br>
+     * By default responses are kept for 30 seconds, up to 128 of them.
+     *
+     * @param ttl How long a response is reused for, or {@code 0} to disable caching.
+     * @param unit The {@link TimeUnit} of the ttl.
+     * @param maxEntries The most responses kept at once.
+     */
+    public void setResponseCache(long ttl, TimeUnit unit, int maxEntries)
+    {
+        if(maxEntries < 0)
+            throw new IllegalArgumentException("maxEntries must not be negative");
+        responses.setLimits(Math.max(0, unit.toNanos(ttl)), maxEntries);
+    }
+
+    /**
+     * Drops every cached response to a read-only command.
+     *
+     * @see #setResponseCache(long, TimeUnit, int)
+     */
+    public void invalidateResponseCache()
+    {
+        responses.clear();
+    }
+
+    /**
+     * Releases a reference to an event {@link Event} taken with
+     * {@link #subscribe(Event)}.<br>
+     * Once the last reference is released, Discord stops sending the event.
+     *
+     * @param sub The event {@link Event} to release.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method, or the event is not subscribed to.
+     */
+    public void unsubscribe(Event sub)
+    {
+        unsubscribe(sub, null);
+    }
+
+    /**
+     * Releases a reference to an event {@link Event} taken with
+     * {@link #subscribe(Event, Callback)}.<br>
+     * Once the last reference is released, Discord stops sending the event.<p>
+     *
+     * If other references remain, the {@link Callback} succeeds
+     * immediately with a {@code null} {@link Packet}.
+     *
+     * @param sub The event {@link Event} to release.
+     * @param callback The {@link Callback} to handle success or failure
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method, or the event is not subscribed to.
+     */
+    public void unsubscribe(Event sub, Callback callback)
+    {
+        ensureConnected(true);
+        subscriptions.unsubscribe(sub, callback);
+    }
+
+    /**
+     * Gets the event {@link Event Events} this IPCClient currently
+     * holds at least one subscription to.
+     *
+     * @return An unmodifiable set of the subscribed events.
+     */
+    public Set<Event> getActiveSubscriptions()
+    {
+        return subscriptions.getActive();
+    }
+
+    /**
+     * Gets the IPCClient's current {@link PipeStatus}.
+     *
+     * @return The IPCClient's current {@link PipeStatus}.
+     */
+    public PipeStatus getStatus()
+    {
+        if (connecting && (pipe == null || pipe.getStatus() != PipeStatus.CONNECTED)) return PipeStatus.CONNECTING;
+        if (pipe == null) return PipeStatus.UNINITIALIZED;
+        if (parked) return PipeStatus.CONNECTED;
+
+        return pipe.getStatus();
+    }
+
+    /**
+     * Attempts to close an open connection to Discord.<br>
+     * This can be reopened with another call to {@link #connect(DiscordBuild...)}.
+     *
+     * @throws IllegalStateException
+     *         If a connection was not made prior to invoking
+     *         this method.
+     */
+    @Override
+    public void close()
+    {
+        checkConnected(true);
+
+        setPresenceSchedule(null);
+        cancelIdleCheck();
+        synchronized(this)
+        {
+            if(parked)
+            {
+                // the pipe is already closed
+                parked = false;
+                metrics.unregister();
+                return;
+            }
+        }
+        cancelPing();
+        cancelWatchdog();
+        if(broker != null)
+            broker.close();
+        broker = null;
+        closeStandby(pipe);
+        try {
+            pipe.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close pipe", e);
+        }
+        metrics.unregister();
+    }
+
+    /**
+     * Sets how often this IPCClient sends a {@link OpCode#PING} to Discord
+     * to measure the round trip time of the connection.<p>
+     *
+     * Each answered PING is recorded in {@link IPCMetrics#getRoundTripTime()}
+     * and folded into {@link #getRoundTripTime()}. A PING is only sent once the
+     * previous one has been answered, so a stalled connection doesn't pile them up.<br>
+     * This is disabled by default, and a non-positive interval disables it again.
+     * Inbound PINGs from Discord are always answered regardless.
+     *
+     * @param interval The time between PINGs, or {@code 0} to disable them.
+     * @param unit The {@link TimeUnit} of the interval.
+     */
+    public synchronized void setPingInterval(long interval, TimeUnit unit)
+    {
+        pingIntervalNanos = Math.max(0, unit.toNanos(interval));
+        cancelPing();
+        if(getStatus() == PipeStatus.CONNECTED)
+            schedulePing();
+    }
+
+    /**
+     * Sets how long this IPCClient tolerates a connection that has gone quiet
+     * before checking whether Discord is still there.<p>
+     *
+     * A connection is suspect once nothing has been read from it for the
+     * timeout, or a command has waited that long for its response. It is then
+     * probed with a {@link OpCode#PING}, and if nothing at all is read within
+     * another timeout it is declared dead: the pipe is closed, the status becomes
+     * {@link PipeStatus#DISCONNECTED} and {@link IPCListener#onDisconnect(IPCClient, Throwable)}
+     * fires, so the application can reconnect.<br>
+     * This is disabled by default, and a non-positive timeout disables it again.
+     *
+     * @param timeout How long to wait before probing, and then for the probe.
+     * @param unit The {@link TimeUnit} of the timeout.
+     */
+    public synchronized void setLivenessTimeout(long timeout, TimeUnit unit)
+    {
+        livenessTimeoutNanos = Math.max(0, unit.toNanos(timeout));
+        cancelWatchdog();
+        if(getStatus() == PipeStatus.CONNECTED)
+            scheduleWatchdog();
+    }
+
+    /**
+     * Sets how long this IPCClient may sit unused before it lets go of its
+     * connection to Discord.<p>
+     *
+     * Once nothing has been sent for the timeout, no {@link Event} is
+     * subscribed to and no response is awaited, the pipe is closed and its
+     * reading thread ends. The IPCClient still reports itself
+     * {@link PipeStatus#CONNECTED}, and the next call that sends anything
+     * reconnects first, trying the location it was last connected at before
+     * doing a full discovery. Neither {@link IPCListener#onDisconnect(IPCClient, Throwable)}
+     * nor {@link IPCListener#onReady(IPCClient)} fire for this.<br>
+     * Discord clears the {@link RichPresence} of a closed connection, so the
+     * last one sent is shown again as soon as the IPCClient reconnects. A
+     * connection serving a {@link #setBrokered(boolean, int) broker} never idles.<p>
+     *
+     * This is disabled by default, and a non-positive timeout disables it again.
+     *
+     * @param timeout How long the IPCClient may go unused.
+     * @param unit The {@link TimeUnit} of the timeout.
+     */
+    public synchronized void setIdleTimeout(long timeout, TimeUnit unit)
+    {
+        idleTimeoutNanos = Math.max(0, unit.toNanos(timeout));
+        cancelIdleCheck();
+        if(getStatus() == PipeStatus.CONNECTED)
+            scheduleIdleCheck();
+    }
+
+    /**
+     * Gets the smoothed round trip time to Discord, as measured by the
+     * PINGs enabled with {@link #setPingInterval(long, TimeUnit)}.
+     *
+     * @return The smoothed round trip time in nanoseconds,
+     *         or {@code -1} if no PING has been answered yet.
+     */
+    public long getRoundTripTime()
+    {
+        return metrics.getSmoothedRoundTripTime();
+    }
+
+    /**
+     * Gets the {@link IPCMetrics} recording this IPCClient's traffic.<p>
+     *
+     * The same instance is returned for the lifespan of the IPCClient,
+     * across reconnects, and is also exposed as an MXBean while connected.
+     *
+     * @return The IPCClient's {@link IPCMetrics}.
+     */
+    public IPCMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Gets the IPCClient's {@link DiscordBuild}.<p>
+     *
+     * This is always the first specified DiscordBuild when
+     * making a call to {@link #connect(DiscordBuild...)},
+     * or the first one found if none or {@link DiscordBuild#ANY}
+     * is specified.<p>
+     *
+     * Note that specifying ANY doesn't mean that this will return
+     * ANY. In fact this method should <b>never</b> return the
+     * value ANY.
+     *
+     * @return The {@link DiscordBuild} of this IPCClient, or null if not connected.
+     */
+    public DiscordBuild getDiscordBuild()
+    {
+        if (pipe == null) return null;
+
+        return pipe.getDiscordBuild();
+    }
+
+    /**
+     * Gets what Discord said about itself when this IPCClient connected:
+     * the user logged in, the CDN host, the RPC version and the like.<p>
+     *
+     * This is parsed from the {@code READY} answering the handshake, so it costs
+     * no extra round trip. It is available as soon as
+     * {@link #connect(DiscordBuild...)} returns, and is replaced whenever this
+     * IPCClient connects again, including after a failover or an idle reconnect.
+     * When connected through a {@link #setBrokered(boolean, int) presence broker},
+     * it describes the broker's connection.
+     *
+     * @return The {@link ConnectionInfo} of the latest connection, or {@code null} if never connected.
+     */
+    public ConnectionInfo getConnectionInfo()
+    {
+        return connectionInfo;
+    }
+
+    /**
+     * Constants representing events that can be subscribed to
+     * using {@link #subscribe(Event)}.<p>
+     *
+     * Each event corresponds to a different function as a
+     * component of the Rich Presence.<br>
+     * A full breakdown of each is available
+     * <a href=https://discordapp.com/developers/docs/rich-presence/how-to>here</a>.
+     */
+    public enum Event
+    {
+        NULL(false), // used for confirmation
+        READY(false),
+        ERROR(false),
+        ACTIVITY_JOIN(true),
+        ACTIVITY_SPECTATE(true),
+        ACTIVITY_JOIN_REQUEST(true),
+        /**
+         * A backup key, only important if the
+         * IPCClient receives an unknown event
+         * type in a JSON payload.
+         */
+        UNKNOWN(false);
+        
+        private final boolean subscribable;
+        
+        Event(boolean subscribable)
+        {
+            this.subscribable = subscribable;
+        }
+        
+        public boolean isSubscribable()
+        {
+            return subscribable;
+        }
+        
+        static Event of(String str)
+        {
+            if(str==null)
+                return NULL;
+            for(Event s : Event.values())
+            {
+                if(s != UNKNOWN && s.name().equalsIgnoreCase(str))
+                    return s;
+            }
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Which queued item makes way when a bounded queue is full.
+     *
+     * @see #setJoinRequestLimits(long, TimeUnit, int, DropPolicy)
+     */
+    public enum DropPolicy
+    {
+        /**
+         * Drops the item that has waited longest, keeping the freshest.
+         */
+        DROP_OLDEST,
+        /**
+         * Drops the incoming item, keeping those already waiting.
+         */
+        DROP_NEWEST
+    }
+
+
+    // Private methods
+    
+    /**
+     * Makes sure that the client is connected (or not) depending on if it should
+     * for the current state.
+     *
+     * @param connected Whether to check in the context of the IPCClient being
+     *                  connected or not.
+     */
+    private void checkConnected(boolean connected)
+    {
+        if(connected && getStatus() != PipeStatus.CONNECTED)
+            throw new IllegalStateException(String.format("IPCClient (ID: %d) is not connected!", clientId));
+        if(!connected && getStatus() == PipeStatus.CONNECTED)
+            throw new IllegalStateException(String.format("IPCClient (ID: %d) is already connected!", clientId));
+    }
+    
+    /**
+     * Makes sure the client is connected before sending something,
+     * reconnecting first if it was closed for being idle.
+     *
+     * @param restorePresence Whether to resend the last {@link RichPresence}
+     *                        after reconnecting.
+     */
+    private void ensureConnected(boolean restorePresence)
+    {
+        if(parked)
+            resume(restorePresence);
+        checkConnected(true);
+        lastUsedNanos = System.nanoTime();
+    }
+
+    /**
+     * Queues something to send once a {@link #connectAsync(DiscordBuild...)}
+     * completes, if one is in progress.
+     *
+     * @param action Sends it.
+     * @param callbacks The callbacks to fail if the connection cannot be made, elements may be {@code null}.
+     *
+     * @return Whether it was queued, rather than to be sent straight away.
+     */
+    private boolean defer(Runnable action, Collection<Callback> callbacks)
+    {
+        return defer(action, callbacks, false);
+    }
+
+    private boolean defer(Runnable action, Collection<Callback> callbacks, boolean presence)
+    {
+        if(!connecting)
+            return false;
+        synchronized(deferred)
+        {
+            if(!connecting)
+                return false;
+            deferred.add(new Deferred(action, new ArrayList<>(callbacks)));
+            presenceDeferred |= presence;
+            return true;
+        }
+    }
+
+    /**
+     * Sends everything queued while connecting. The queue stays locked and
+     * {@code connecting} stays set until it is empty, so anything sent
+     * meanwhile either joins the queue or waits for it, and never overtakes it.
+     */
+    private void flushDeferred()
+    {
+        synchronized(deferred)
+        {
+            // indexed, as a callback run on this thread may still queue more
+            for(int i = 0; i < deferred.size(); i++)
+            {
+                Deferred d = deferred.get(i);
+                try
+                {
+                    d.action.run();
+                }
+                catch(RuntimeException ex)
+                {
+                    LOGGER.error("Failed to send what was queued while connecting", ex);
+                    for(Callback callback : d.callbacks)
+                        if(callback != null)
+                            dispatcher.fail(callback, ex.getMessage());
+                }
+            }
+            deferred.clear();
+            presenceDeferred = false;
+            connecting = false;
+        }
+    }
+
+    /**
+     * Fails everything queued while connecting, as the connection could not be made.
+     */
+    private void failDeferred(Exception cause)
+    {
+        List<Deferred> failed;
+        synchronized(deferred)
+        {
+            connecting = false;
+            failed = new ArrayList<>(deferred);
+            deferred.clear();
+            presenceDeferred = false;
+        }
+        for(Deferred d : failed)
+            for(Callback callback : d.callbacks)
+                if(callback != null)
+                    dispatcher.fail(callback, "Failed to connect: " + cause);
+    }
+
+    /**
+     * Finds Discord, either directly or through a {@link PresenceBroker}.
+     *
+     * @param preferredOrder The priority order of client builds to connect to.
+     *
+     * @return The connected pipe.
+     */
+    private Pipe discover(DiscordBuild... preferredOrder) throws NoDiscordClientException
+    {
+        Pipe found = brokered ? openBrokerPipe() : null;
+        if(found == null)
+        {
+            found = Pipe.openPipe(this, metrics.forPipe(), connectedTransport, clientId, callbacks, hotStandby, preferredOrder);
+            if(brokered)
+            {
+                pipe = found;
+                startBroker();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Makes a newly connected pipe the current one and restores the subscriptions on it.
+     *
+     * @param connected The connected pipe.
+     */
+    private void attach(Pipe connected)
+    {
+        connected.setListener(dispatcher);
+        connected.setCallbackExecutor(dispatcher.callbackExecutor());
+        connected.setRecorder(recorder);
+        pipe = connected;
+        connectionInfo = connected.getConnectionInfo();
+        responses.clear();
+        subscriptions.restore();
+        scheduleIdleCheck();
+    }
+
+    /**
+     * Starts checking whether the connection has gone unused, if enabled.
+     */
+    private synchronized void scheduleIdleCheck()
+    {
+        if(idleTimeoutNanos <= 0 || idleTask != null)
+            return;
+        lastUsedNanos = System.nanoTime();
+        long period = Math.max(TimeUnit.MILLISECONDS.toNanos(100), idleTimeoutNanos / 4);
+        idleTask = IPCScheduler.get().scheduleAtFixedRate(this::checkIdle, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops checking whether the connection has gone unused.
+     */
+    private synchronized void cancelIdleCheck()
+    {
+        if(idleTask != null)
+            idleTask.cancel(false);
+        idleTask = null;
+    }
+
+    /**
+     * Closes the connection if it has gone unused for the idle timeout,
+     * keeping the IPCClient ready to reconnect on demand.<br>
+     * Runs on the shared timer, so it only decides and parks the connection;
+     * the pipe itself is closed on the common pool. The check stops while
+     * parked, and starts again once {@link #resume(boolean)} attaches a new pipe.
+     */
+    private synchronized void checkIdle()
+    {
+        if(parked || getStatus() != PipeStatus.CONNECTED)
+            return;
+        if(broker != null || !subscriptions.getActive().isEmpty() || !callbacks.isEmpty())
+            return;
+        if(System.nanoTime() - lastUsedNanos < idleTimeoutNanos)
+            return;
+
+        LOGGER.debug("IPCClient has been idle for {} ms, closing the connection", (System.nanoTime() - lastUsedNanos) / 1_000_000);
+        Pipe idle = pipe;
+        parkedLocation = idle.getLocation();
+        parked = true;
+        cancelIdleCheck();
+        cancelPing();
+        cancelWatchdog();
+        // closing writes a CLOSE frame, so keep it off the timer and out of the monitor
+        ForkJoinPool.commonPool().execute(() -> {
+            closeStandby(idle);
+            try
+            {
+                idle.close();
+            }
+            catch(IOException ex)
+            {
+                LOGGER.debug("Failed to close idle pipe", ex);
+            }
+        });
+    }
+
+    /**
+     * Reconnects after the connection was closed for being idle. If that fails,
+     * the IPCClient is disconnected as though the connection had been lost.<p>
+     *
+     * Only one thread reconnects at a time, and finding Discord happens outside
+     * this IPCClient's monitor, which is only held to swap in the new pipe.
+     *
+     * @param restorePresence Whether to resend the last {@link RichPresence}.
+     */
+    private void resume(boolean restorePresence)
+    {
+        synchronized(resuming)
+        {
+            String location;
+            synchronized(this)
+            {
+                if(!parked)
+                    return;
+                location = parkedLocation;
+            }
+            Pipe resumed = null;
+            if(location != null && !brokered)
+            {
+                try
+                {
+                    resumed = Pipe.reopenPipe(this, metrics.forPipe(), connectedTransport, clientId, callbacks, location);
+                }
+                catch(IOException ex)
+                {
+                    LOGGER.debug("Discord is no longer at {}, discovering again", location);
+                }
+            }
+            try
+            {
+                if(resumed == null)
+                    resumed = discover(preferredOrder);
+            }
+            catch(NoDiscordClientException ex)
+            {
+                synchronized(this)
+                {
+                    if(!parked)
+                        return;
+                    LOGGER.warn("Failed to reconnect an idle IPCClient, no Discord client was found");
+                    parked = false;
+                    pipe.setStatus(PipeStatus.DISCONNECTED);
+                    recordDisconnect(PipeStatus.DISCONNECTED, "Reconnect after idle failed");
+                }
+                dispatcher.onDisconnect(this, ex);
+                return;
+            }
+
+            synchronized(this)
+            {
+                if(!parked)
+                {
+                    // closed while we were reconnecting
+                    if(broker != null)
+                        broker.close();
+                    broker = null;
+                    closeStandby(resumed);
+                    try
+                    {
+                        resumed.close();
+                    }
+                    catch(IOException ex)
+                    {
+                        LOGGER.debug("Failed to close resumed pipe", ex);
+                    }
+                    return;
+                }
+                LOGGER.debug("IPCClient reconnected after being idle");
+                metrics.recordReconnect();
+                parked = false;
+                attach(resumed);
+            }
+            JsonElement activity = lastActivity;
+            if(restorePresence && activity != null)
+                sendActivity(getPID(), activity, null);
+            startReading();
+            schedulePing();
+            scheduleWatchdog();
+        }
+    }
+
+    /**
+     * Starts sending periodic PINGs, if enabled.
+     */
+    private synchronized void schedulePing()
+    {
+        pingNonce = null; // a PING lost with the previous connection will never be answered
+        if(pingIntervalNanos <= 0 || pingTask != null)
+            return;
+        pingTask = IPCScheduler.get().scheduleAtFixedRate(this::sendPing,
+                pingIntervalNanos, pingIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops sending periodic PINGs.
+     */
+    private synchronized void cancelPing()
+    {
+        if(pingTask != null)
+            pingTask.cancel(false);
+        pingTask = null;
+        pingNonce = null;
+    }
+
+    /**
+     * Connects through the {@link PresenceBroker} of another process, if one is serving.
+     *
+     * @return The pipe to the broker, or {@code null} if there is none.
+     */
+    private Pipe openBrokerPipe()
+    {
+        try
+        {
+            return Pipe.openBrokerPipe(this, metrics.forPipe(), clientId, callbacks, brokerPriority);
+        }
+        catch(IOException ex)
+        {
+            LOGGER.debug("No presence broker to connect to: {}", ex.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Serves this connection to other processes, unless one beat us to it.
+     */
+    private void startBroker()
+    {
+        try
+        {
+            broker = PresenceBroker.start(this, subscriptions, clientId, brokerPriority, pipe.getReadyPacket());
+        }
+        catch(IOException ex)
+        {
+            LOGGER.warn("Failed to start presence broker, presence will not be shared: {}", ex.toString());
+        }
     }
-    
+
     /**
-     * Opens the connection between the IPCClient and Discord.<p>
-     *
-     * <b>This must be called before any data is exchanged between the
-     * IPCClient and Discord.</b>
+     * Switches to the standby pipe after the primary one failed, if there is one.
      *
-     * @param preferredOrder the priority order of client builds to connect to
+     * @param cause What the primary pipe failed with.
      *
-     * @throws IllegalStateException
-     *         There is an open connection on this IPCClient.
-     * @throws NoDiscordClientException
-     *         No client of the provided {@link DiscordBuild build type}(s) was found.
+     * @return Whether this IPCClient is still connected, through the standby.
      */
-    public void connect(DiscordBuild... preferredOrder) throws NoDiscordClientException
+    private boolean failover(Exception cause)
     {
-        checkConnected(false);
-        callbacks.clear();
-        pipe = null;
+        Pipe failed = pipe;
+        Pipe next = failed.takeStandby();
+        if(next == null)
+            return false;
+        if(failed.getStatus() == PipeStatus.CLOSED)
+        {
+            // we closed it ourselves, nothing to fail over from
+            try
+            {
+                next.close();
+            }
+            catch(IOException ex)
+            {
+                LOGGER.debug("Failed to close standby pipe", ex);
+            }
+            return false;
+        }
+
+        LOGGER.warn("Lost connection to Discord ({}), switching to standby client: {}", cause.toString(), next.getDiscordBuild());
+        try
+        {
+            failed.abort();
+        }
+        catch(IOException ex)
+        {
+            LOGGER.debug("Failed to abort pipe", ex);
+        }
+        recordDisconnect(PipeStatus.DISCONNECTED, "Failed over to " + next.getDiscordBuild() + ": " + cause);
+        metrics.recordFailover();
 
-        pipe = Pipe.openPipe(this, clientId, callbacks, preferredOrder);
+        // responses to anything sent on the failed pipe will never come
+        List<Callback> pending = new ArrayList<>(callbacks.values());
+        callbacks.clear();
+        metrics.clearInflight();
+        pingNonce = null;
+        livenessFailure = null;
+        for(Callback callback : pending)
+            dispatcher.fail(callback, "Connection to Discord lost: " + cause.getMessage());
 
-        LOGGER.debug("Client is now connected and ready!");
-        if(listener != null)
-            listener.onReady(this);
+        // the standby is another Discord client, with its own READY and cached state
+        attach(next);
+        PresenceBroker b = broker;
+        JsonElement activity = lastActivity;
+        if(b != null)
+            b.resend();
+        else if(activity != null)
+            sendActivity(getPID(), activity, null);
         startReading();
+        return true;
     }
-    
+
     /**
-     * Sends a {@link RichPresence} to the Discord client.<p>
-     *
-     * This is where the IPCClient will officially display
-     * a Rich Presence in the Discord client.<p>
-     *
-     * Sending this again will overwrite the last provided
-     * {@link RichPresence}.
-     *
-     * @param presence The {@link RichPresence} to send.
-     *
-     * @throws IllegalStateException
-     *         If a connection was not made prior to invoking
-     *         this method.
+     * Closes the standby kept alongside a pipe, if any.
      *
-     * @see RichPresence
+     * @param primary The pipe the standby belongs to.
      */
-    public void sendRichPresence(RichPresence presence)
+    private static void closeStandby(Pipe primary)
     {
-        sendRichPresence(presence, null);
+        Pipe standby = primary.takeStandby();
+        if(standby == null)
+            return;
+        try
+        {
+            standby.close();
+        }
+        catch(IOException ex)
+        {
+            LOGGER.debug("Failed to close standby pipe", ex);
+        }
     }
-    
+
     /**
-     * Sends a {@link RichPresence} to the Discord client.<p>
-     *
-     * This is where the IPCClient will officially display
-     * a Rich Presence in the Discord client.<p>
-     *
-     * Sending this again will overwrite the last provided
-     * {@link RichPresence}.
-     *
-     * @param presence The {@link RichPresence} to send.
-     * @param callback A {@link Callback} to handle success or error
-     *
-     * @throws IllegalStateException
-     *         If a connection was not made prior to invoking
-     *         this method.
-     *
-     * @see RichPresence
+     * Starts watching the connection for liveness, if enabled.
      */
-    public void sendRichPresence(RichPresence presence, Callback callback)
+    private synchronized void scheduleWatchdog()
     {
-        checkConnected(true);
-        LOGGER.debug("Sending RichPresence to discord: {}", presence == null ? null : presence.toJson().toString());
-
-        JsonObject payload = new JsonObject();
-        payload.addProperty("cmd", "SET_ACTIVITY");
-
-        JsonObject args = new JsonObject();
-        args.addProperty("pid", getPID());
-        args.add("activity", presence == null ? null : presence.toJson());
-        payload.add("args", args);
-
-        pipe.send(OpCode.FRAME, payload, callback);
+        livenessFailure = null;
+        if(livenessTimeoutNanos <= 0 || watchdogTask != null)
+            return;
+        long period = Math.max(TimeUnit.MILLISECONDS.toNanos(100), livenessTimeoutNanos / 4);
+        LivenessWatchdog watchdog = new LivenessWatchdog(() -> pipe, metrics, livenessTimeoutNanos, this::declareDead);
+        watchdogTask = IPCScheduler.get().scheduleAtFixedRate(watchdog, period, period, TimeUnit.NANOSECONDS);
     }
 
     /**
-     * Adds an event {@link Event} to this IPCClient.<br>
-     * If the provided {@link Event} is added more than once,
-     * it does nothing.
-     * Once added, there is no way to remove the subscription
-     * other than {@link #close() closing} the connection
-     * and creating a new one.
-     *
-     * @param sub The event {@link Event} to add.
-     *
-     * @throws IllegalStateException
-     *         If a connection was not made prior to invoking
-     *         this method.
+     * Stops watching the connection for liveness.
      */
-    public void subscribe(Event sub)
+    private synchronized void cancelWatchdog()
     {
-        subscribe(sub, null);
+        if(watchdogTask != null)
+            watchdogTask.cancel(false);
+        watchdogTask = null;
     }
-    
+
     /**
-     * Adds an event {@link Event} to this IPCClient.<br>
-     * If the provided {@link Event} is added more than once,
-     * it does nothing.
-     * Once added, there is no way to remove the subscription
-     * other than {@link #close() closing} the connection
-     * and creating a new one.
-     *
-     * @param sub The event {@link Event} to add.
-     * @param callback The {@link Callback} to handle success or failure
+     * Tears down a connection the {@link LivenessWatchdog} found dead.
+     * The reading thread then fails and reports the disconnect.
      *
-     * @throws IllegalStateException
-     *         If a connection was not made prior to invoking
-     *         this method.
+     * @param cause Why the connection was declared dead.
      */
-    public void subscribe(Event sub, Callback callback)
+    private void declareDead(IOException cause)
     {
-        checkConnected(true);
-        if (!sub.isSubscribable()) {
-            throw new IllegalStateException("Cannot subscribe to " + sub + " event!");
+        LOGGER.warn("Connection to Discord is unresponsive, disconnecting: {}", cause.getMessage());
+        livenessFailure = cause;
+        try
+        {
+            pipe.abort();
         }
+        catch(IOException ex)
+        {
+            LOGGER.debug("Failed to abort pipe", ex);
+        }
+    }
 
-        LOGGER.debug("Subscribing to Event: {}", sub.name());
-
+    /**
+     * Sends a PING, unless one is still awaiting its PONG.
+     */
+    private void sendPing()
+    {
+        Pipe current = pipe;
+        if(current == null || current.getStatus() != PipeStatus.CONNECTED || pingNonce != null)
+            return;
+        String nonce = UUID.randomUUID().toString();
         JsonObject payload = new JsonObject();
-        payload.addProperty("cmd", "SUBSCRIBE");
-        payload.addProperty("evt", sub.name());
-
-        pipe.send(OpCode.FRAME, payload, callback);
+        payload.addProperty("nonce", nonce);
+        pingNonce = nonce;
+        // the write may block on a hung connection, so keep it off the shared timer thread
+        ForkJoinPool.commonPool().execute(() -> {
+            pingSentNanos = System.nanoTime();
+            current.sendRaw(OpCode.PING, payload);
+        });
     }
 
     /**
-     * Gets the IPCClient's current {@link PipeStatus}.
+     * Records the round trip time of the PING a PONG answers.
      *
-     * @return The IPCClient's current {@link PipeStatus}.
+     * @param pong The PONG received.
      */
-    public PipeStatus getStatus()
+    private void handlePong(Packet pong)
     {
-        if (pipe == null) return PipeStatus.UNINITIALIZED;
-
-        return pipe.getStatus();
+        String nonce = pingNonce;
+        if(nonce == null || pong.getJson() == null || !pong.getJson().isJsonObject())
+            return;
+        if(nonce.equals(Utils.getJsonStringOrDefault(pong.getJson().getAsJsonObject(), "nonce", null)))
+        {
+            metrics.recordRoundTrip(System.nanoTime() - pingSentNanos);
+            pingNonce = null;
+        }
     }
 
     /**
-     * Attempts to close an open connection to Discord.<br>
-     * This can be reopened with another call to {@link #connect(DiscordBuild...)}.
+     * Sends {@code SUBSCRIBE} or {@code UNSUBSCRIBE} commands on
+     * behalf of the {@link SubscriptionManager}, in a single write.
      *
-     * @throws IllegalStateException
-     *         If a connection was not made prior to invoking
-     *         this method.
+     * @param cmd The command to send.
+     * @param events The event {@link Event Events} it applies to, one frame each.
+     * @param callbacks The {@link Callback Callbacks} to handle each response.
      */
-    @Override
-    public void close()
+    private void sendSubscription(String cmd, List<Event> events, List<Callback> callbacks)
     {
-        checkConnected(true);
+        LOGGER.debug("Sending {} for Events: {}", cmd, events);
 
-        try {
-            pipe.close();
-        } catch (IOException e) {
-            LOGGER.debug("Failed to close pipe", e);
+        List<JsonObject> payloads = new ArrayList<>(events.size());
+        for(Event event : events)
+        {
+            JsonObject payload = new JsonObject();
+            payload.addProperty("cmd", cmd);
+            payload.addProperty("evt", event.name());
+            payloads.add(payload);
         }
+
+        pipe.sendAll(OpCode.FRAME, payloads, callbacks);
     }
 
     /**
-     * Gets the IPCClient's {@link DiscordBuild}.<p>
-     *
-     * This is always the first specified DiscordBuild when
-     * making a call to {@link #connect(DiscordBuild...)},
-     * or the first one found if none or {@link DiscordBuild#ANY}
-     * is specified.<p>
-     *
-     * Note that specifying ANY doesn't mean that this will return
-     * ANY. In fact this method should <b>never</b> return the
-     * value ANY.
-     *
-     * @return The {@link DiscordBuild} of this IPCClient, or null if not connected.
+     * Journals the active subscriptions once Discord has answered for them,
+     * so one it rejected is never put back after a restart.
      */
-    public DiscordBuild getDiscordBuild()
+    private void journalSubscriptions()
     {
-        if (pipe == null) return null;
-
-        return pipe.getDiscordBuild();
+        PresenceJournal j = journal;
+        if(j == null)
+            return;
+        // read under the journal's lock, so the last change to finish is the one journaled
+        synchronized(j)
+        {
+            j.recordSubscriptions(subscriptions.getActive());
+        }
     }
 
     /**
-     * Constants representing events that can be subscribed to
-     * using {@link #subscribe(Event)}.<p>
-     *
-     * Each event corresponds to a different function as a
-     * component of the Rich Presence.<br>
-     * A full breakdown of each is available
-     * <a href=https://discordapp.com/developers/docs/rich-presence/how-to>here</a>.
+     * Puts back what the {@link PresenceJournal} holds after connecting.
      */
-    public enum Event
+    private void restoreJournal()
     {
-        NULL(false), // used for confirmation
-        READY(false),
-        ERROR(false),
-        ACTIVITY_JOIN(true),
-        ACTIVITY_SPECTATE(true),
-        ACTIVITY_JOIN_REQUEST(true),
-        /**
-         * A backup key, only important if the
-         * IPCClient receives an unknown event
-         * type in a JSON payload.
-         */
-        UNKNOWN(false);
-        
-        private final boolean subscribable;
-        
-        Event(boolean subscribable)
+        PresenceJournal j = journal;
+        if(j == null)
+            return;
+        Map<Event, Callback> missing = new EnumMap<>(Event.class);
+        for(Event event : j.getSubscriptions())
+            if(!subscriptions.getActive().contains(event))
+                missing.put(event, null);
+        if(!missing.isEmpty())
         {
-            this.subscribable = subscribable;
+            LOGGER.debug("Restoring journaled subscriptions: {}", missing.keySet());
+            subscriptions.subscribeAll(missing);
         }
-        
-        public boolean isSubscribable()
+        JsonElement activity = j.getActivity();
+        boolean presenceQueued;
+        synchronized(deferred)
         {
-            return subscribable;
+            presenceQueued = presenceDeferred;
         }
-        
-        static Event of(String str)
+        // a presence queued by connectAsync is newer than the journaled one
+        if(lastActivity == null && !presenceQueued && activity.isJsonObject())
         {
-            if(str==null)
-                return NULL;
-            for(Event s : Event.values())
-            {
-                if(s != UNKNOWN && s.name().equalsIgnoreCase(str))
-                    return s;
-            }
-            return UNKNOWN;
+            LOGGER.debug("Restoring journaled RichPresence");
+            sendPresence(activity.getAsJsonObject(), null);
         }
     }
 
+    private CompletableFuture<JsonElement> query(String cmd, JsonObject args)
+    {
+        ensureConnected(false);
+        return responses.get(cmd, args);
+    }
 
-    // Private methods
-    
-    /**
-     * Makes sure that the client is connected (or not) depending on if it should
-     * for the current state.
-     *
-     * @param connected Whether to check in the context of the IPCClient being
-     *                  connected or not.
-     */
-    private void checkConnected(boolean connected)
+    private void sendQuery(String cmd, JsonObject args, Callback callback)
     {
-        if(connected && getStatus() != PipeStatus.CONNECTED)
-            throw new IllegalStateException(String.format("IPCClient (ID: %d) is not connected!", clientId));
-        if(!connected && getStatus() == PipeStatus.CONNECTED)
-            throw new IllegalStateException(String.format("IPCClient (ID: %d) is already connected!", clientId));
+        LOGGER.debug("Sending {}: {}", cmd, args);
+        JsonObject payload = new JsonObject();
+        payload.addProperty("cmd", cmd);
+        payload.add("args", args);
+        pipe.send(OpCode.FRAME, payload, callback);
     }
-    
+
+    private CompletableFuture<BatchResult<Long>> sendJoinReplies(String cmd, Collection<Long> userIds)
+    {
+        List<Long> distinct = new ArrayList<>(new LinkedHashSet<>(userIds));
+        BatchCollector<Long> collector = new BatchCollector<>(distinct.size());
+        List<Callback> callbacks = new ArrayList<>(distinct.size());
+        for(Long userId : distinct)
+            callbacks.add(collector.callbackFor(userId));
+        sendJoinReplies(cmd, distinct, callbacks);
+        return collector.getFuture();
+    }
+
+    private void sendJoinReplies(String cmd, List<Long> userIds, List<Callback> callbacks)
+    {
+        ensureConnected(false);
+        if(userIds.isEmpty())
+            return;
+        LOGGER.debug("Sending {} for users: {}", cmd, userIds);
+
+        List<JsonObject> payloads = new ArrayList<>(userIds.size());
+        for(long userId : userIds)
+        {
+            JsonObject args = new JsonObject();
+            args.addProperty("user_id", Long.toString(userId));
+
+            JsonObject payload = new JsonObject();
+            payload.addProperty("cmd", cmd);
+            payload.add("args", args);
+            payloads.add(payload);
+        }
+
+        pipe.sendAll(OpCode.FRAME, payloads, callbacks);
+    }
+
     /**
      * Initializes this IPCClient's {@link IPCClient#readThread readThread}
      * and calls the first {@link Pipe#read()}.
      */
     private void startReading()
     {
+        Pipe reading = pipe;
         readThread = new Thread(() -> {
             try
             {
                 Packet p;
-                while((p = pipe.read()).getOp() != OpCode.CLOSE)
+                while((p = reading.read()).getOp() != OpCode.CLOSE)
                 {
+                    if(p.getOp() == OpCode.PING)
+                    {
+                        reading.sendRaw(OpCode.PONG, p.getJson());
+                        continue;
+                    }
+                    if(p.getOp() == OpCode.PONG)
+                    {
+                        handlePong(p);
+                        continue;
+                    }
                     JsonObject json = p.getJson().getAsJsonObject();
                     Event event = Event.NULL;
                     if (json.has("evt") && !json.get("evt").isJsonNull()) {
                         event = Event.of(json.get("evt").getAsString());
                     }
                     String nonce = Utils.getJsonStringOrDefault(json, "nonce", null );
+                    if(nonce != null)
+                        recordCallback(nonce, json, event != Event.ERROR);
                     switch(event)
                     {
                         case NULL:
                             if(nonce != null && callbacks.containsKey(nonce))
-                                callbacks.remove(nonce).succeed(p);
+                                dispatcher.succeed(callbacks.remove(nonce), p);
                             break;
                             
                         case ERROR:
                             if(nonce != null && callbacks.containsKey(nonce))
-                                callbacks.remove(nonce).fail(Utils.getJsonStringOrDefault(json.get("data").getAsJsonObject(), "message", null));
+                                dispatcher.fail(callbacks.remove(nonce), Utils.getJsonStringOrDefault(json.get("data").getAsJsonObject(), "message", null));
                             break;
                             
                         case ACTIVITY_JOIN:
@@ -394,7 +2026,9 @@ public final class IPCClient implements Closeable
                             LOGGER.debug("Reading thread encountered an event with an unknown type: {}", json.get("evt").getAsString());
                             break;
                     }
-                    if(listener != null && json.has("cmd") && json.get("cmd").getAsString().equals("DISPATCH"))
+                    // events only broker peers subscribed to are theirs alone
+                    if(!dispatcher.getRegistry().isEmpty() && json.has("cmd") && json.get("cmd").getAsString().equals("DISPATCH")
+                            && subscriptions.isOwned(event))
                     {
                         try
                         {
@@ -402,22 +2036,16 @@ public final class IPCClient implements Closeable
                             switch(Event.of(json.get("evt").getAsString()))
                             {
                                 case ACTIVITY_JOIN:
-                                    listener.onActivityJoin(this, data.get("secret").getAsString());
+                                    dispatcher.onActivityJoin(this, data.get("secret").getAsString());
                                     break;
                                     
                                 case ACTIVITY_SPECTATE:
-                                    listener.onActivitySpectate(this, data.get("secret").getAsString());
+                                    dispatcher.onActivitySpectate(this, data.get("secret").getAsString());
                                     break;
                                     
                                 case ACTIVITY_JOIN_REQUEST:
-                                    JsonObject u = data.getAsJsonObject("user");
-                                    User user = new User(
-                                        u.get("username").getAsString(),
-                                        u.get("discriminator").getAsString(),
-                                        Long.parseLong(u.get("id").getAsString()),
-                                        Utils.getJsonStringOrDefault(u, "avatar", null)
-                                    );
-                                    listener.onActivityJoinRequest(this, Utils.getJsonStringOrDefault(data, "secret", null), user);
+                                    if(joinRequests.offer(data))
+                                        dispatcher.drainJoinRequests(this, joinRequests);
                                     break;
                             }
                         }
@@ -427,26 +2055,82 @@ public final class IPCClient implements Closeable
                         }
                     }
                 }
-                pipe.setStatus(PipeStatus.DISCONNECTED);
-                if(listener != null)
-                    listener.onClose(this, p.getJson());
+                if(reading != pipe || parked)
+                    return;
+                reading.setStatus(PipeStatus.DISCONNECTED);
+                closeStandby(reading);
+                recordDisconnect(PipeStatus.DISCONNECTED, "CLOSE received");
+                dispatcher.onClose(this, p.getJson());
             }
-            catch(IOException | JsonIOException ex)
+            catch(IOException | JsonIOException readFailure)
             {
+                // closed for being idle, or already replaced
+                if(reading != pipe || parked)
+                    return;
+                if(failover(readFailure))
+                    return;
+                Exception ex = readFailure;
+                IOException failure = livenessFailure;
+                if(failure != null)
+                {
+                    failure.addSuppressed(readFailure);
+                    ex = failure;
+                }
                 if(ex instanceof IOException)
                     LOGGER.error("Reading thread encountered an IOException", ex);
                 else
                     LOGGER.error("Reading thread encountered an JsonIOException", ex);
 
-                pipe.setStatus(PipeStatus.DISCONNECTED);
-                if(listener != null)
-                    listener.onDisconnect(this, ex);
+                reading.setStatus(PipeStatus.DISCONNECTED);
+                closeStandby(reading);
+                recordDisconnect(PipeStatus.DISCONNECTED, ex.toString());
+                dispatcher.onDisconnect(this, ex);
             }
         });
 
         LOGGER.debug("Starting IPCClient reading thread!");
         readThread.start();
     }
+
+    /**
+     * Records the response to a command in the {@link IPCMetrics}
+     * and as a {@link CallbackEvent}.
+     *
+     * @param nonce The nonce of the response.
+     * @param json The response payload.
+     * @param success Whether the response was not an error.
+     */
+    private void recordCallback(String nonce, JsonObject json, boolean success)
+    {
+        long latency = metrics.recordCommandCompleted(nonce);
+        CallbackEvent event = new CallbackEvent();
+        if(latency >= 0 && event.isEnabled())
+        {
+            event.nonce = nonce;
+            event.cmd = Utils.getJsonStringOrDefault(json, "cmd", null);
+            event.success = success;
+            event.latency = latency;
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits a {@link DisconnectEvent} for this IPCClient.
+     *
+     * @param status The status the pipe was left in.
+     * @param reason Why the connection ended.
+     */
+    private void recordDisconnect(PipeStatus status, String reason)
+    {
+        DisconnectEvent event = new DisconnectEvent();
+        if(event.isEnabled())
+        {
+            event.clientId = clientId;
+            event.status = status.name();
+            event.reason = reason;
+            event.commit();
+        }
+    }
     
     // Private static methods
     
@@ -455,9 +2139,21 @@ public final class IPCClient implements Closeable
      *
      * @return The current process ID.
      */
-    private static int getPID()
+    static int getPID()
     {
         String pr = ManagementFactory.getRuntimeMXBean().getName();
         return Integer.parseInt(pr.substring(0,pr.indexOf('@')));
     }
+
+    private static final class Deferred
+    {
+        private final Runnable action;
+        private final List<Callback> callbacks;
+
+        private Deferred(Runnable action, List<Callback> callbacks)
+        {
+            this.action = action;
+            this.callbacks = callbacks;
+        }
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonElement;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.User;
+
+/**
+ * An event published by an {@link IPCClient} through its {@link IPCEventPublisher}.<p>
+ *
+ * Each type mirrors one of the methods of {@link IPCListener}.
+ */
+public sealed interface IPCEvent
+{
+    /**
+     * @return The {@link IPCClient} the event happened on.
+     */
+    IPCClient client();
+
+    /**
+     * @see IPCListener#onReady(IPCClient)
+     */
+    record Ready(IPCClient client) implements IPCEvent {}
+
+    /**
+     * @see IPCListener#onActivityJoin(IPCClient, String)
+     */
+    record Join(IPCClient client, String secret) implements IPCEvent {}
+
+    /**
+     * @see IPCListener#onActivitySpectate(IPCClient, String)
+     */
+    record Spectate(IPCClient client, String secret) implements IPCEvent {}
+
+    /**
+     * @see IPCListener#onActivityJoinRequest(IPCClient, String, User)
+     */
+    record JoinRequest(IPCClient client, String secret, User user) implements IPCEvent {}
+
+    /**
+     * @see IPCListener#onClose(IPCClient, JsonElement)
+     */
+    record Close(IPCClient client, JsonElement json) implements IPCEvent {}
+
+    /**
+     * @see IPCListener#onDisconnect(IPCClient, Throwable)
+     */
+    record Disconnect(IPCClient client, Throwable cause) implements IPCEvent {}
+
+    /**
+     * @see IPCListener#onPacketReceived(IPCClient, Packet)
+     */
+    record PacketReceived(IPCClient client, Packet packet) implements IPCEvent {}
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonElement;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.User;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Flow.Publisher} of every {@link IPCEvent} an {@link IPCClient} receives,
+ * available from {@link IPCClient#getEventPublisher()}.<p>
+ *
+ * Each subscriber gets its own bounded buffer and is only sent as many events
+ * as it has requested. When a buffer is full, the subscription's
+ * {@link OverflowPolicy} decides what happens to the next event.<p>
+ *
+ * Events are delivered either on the thread publishing them (see
+ * {@link IPCClient#setDispatchExecutor(java.util.concurrent.Executor)}) or on the thread
+ * calling {@link Flow.Subscription#request(long)}, but never concurrently to the same
+ * subscriber. The stream spans reconnects and never completes on its own;
+ * {@link IPCEvent.Close} and {@link IPCEvent.Disconnect} are regular events.
+ */
+public final class IPCEventPublisher implements Flow.Publisher<IPCEvent>
+{
+    /**
+     * The buffer capacity used by {@link #subscribe(Flow.Subscriber)}.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final ListenerRegistry registry;
+    private final CopyOnWriteArrayList<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final IPCListener listener = new Forwarder();
+
+    IPCEventPublisher(ListenerRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    /**
+     * Subscribes with a buffer of {@link #DEFAULT_CAPACITY} events,
+     * dropping the oldest buffered event when it overflows.
+     *
+     * @param subscriber The subscriber to add.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super IPCEvent> subscriber)
+    {
+        subscribe(subscriber, DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Subscribes with a buffer of the given capacity and {@link OverflowPolicy}.
+     *
+     * @param subscriber The subscriber to add.
+     * @param capacity The maximum number of events buffered while the subscriber has no demand.
+     * @param policy What to do with events arriving while the buffer is full.
+     */
+    public void subscribe(Flow.Subscriber<? super IPCEvent> subscriber, int capacity, OverflowPolicy policy)
+    {
+        if(subscriber == null || policy == null)
+            throw new NullPointerException();
+        if(capacity < 1)
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+
+        EventSubscription subscription = new EventSubscription(subscriber, capacity, policy);
+        synchronized(subscriptions)
+        {
+            if(subscriptions.isEmpty())
+                registry.addInternal(listener);
+            subscriptions.add(subscription);
+        }
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * @return The number of active subscriptions.
+     */
+    public int getSubscriberCount()
+    {
+        return subscriptions.size();
+    }
+
+    private void publish(IPCEvent event)
+    {
+        for(EventSubscription subscription : subscriptions)
+            subscription.offer(event);
+    }
+
+    private void remove(EventSubscription subscription)
+    {
+        synchronized(subscriptions)
+        {
+            if(subscriptions.remove(subscription) && subscriptions.isEmpty())
+                registry.remove(listener);
+        }
+    }
+
+    /**
+     * What a subscription does with an event that arrives while its buffer is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Discards the oldest buffered event to make room.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Discards the event that just arrived.
+         */
+        DROP_NEWEST,
+
+        /**
+         * Cancels the subscription and signals
+         * {@link Flow.Subscriber#onError(Throwable)}.
+         */
+        ERROR
+    }
+
+    /**
+     * Turns {@link IPCListener} calls into {@link IPCEvent IPCEvents}.
+     */
+    private final class Forwarder implements IPCListener
+    {
+        @Override
+        public void onPacketReceived(IPCClient client, Packet packet)
+        {
+            publish(new IPCEvent.PacketReceived(client, packet));
+        }
+
+        @Override
+        public void onActivityJoin(IPCClient client, String secret)
+        {
+            publish(new IPCEvent.Join(client, secret));
+        }
+
+        @Override
+        public void onActivitySpectate(IPCClient client, String secret)
+        {
+            publish(new IPCEvent.Spectate(client, secret));
+        }
+
+        @Override
+        public void onActivityJoinRequest(IPCClient client, String secret, User user)
+        {
+            publish(new IPCEvent.JoinRequest(client, secret, user));
+        }
+
+        @Override
+        public void onReady(IPCClient client)
+        {
+            publish(new IPCEvent.Ready(client));
+        }
+
+        @Override
+        public void onClose(IPCClient client, JsonElement json)
+        {
+            publish(new IPCEvent.Close(client, json));
+        }
+
+        @Override
+        public void onDisconnect(IPCClient client, Throwable t)
+        {
+            publish(new IPCEvent.Disconnect(client, t));
+        }
+    }
+
+    private final class EventSubscription implements Flow.Subscription
+    {
+        private final Flow.Subscriber<? super IPCEvent> subscriber;
+        private final int capacity;
+        private final OverflowPolicy policy;
+        private final ArrayDeque<IPCEvent> buffer;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private Throwable error = null;
+
+        private EventSubscription(Flow.Subscriber<? super IPCEvent> subscriber, int capacity, OverflowPolicy policy)
+        {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.policy = policy;
+            this.buffer = new ArrayDeque<>(Math.min(capacity, 16));
+        }
+
+        private void offer(IPCEvent event)
+        {
+            if(cancelled)
+                return;
+            synchronized(buffer)
+            {
+                if(buffer.size() >= capacity)
+                {
+                    switch(policy)
+                    {
+                        case DROP_OLDEST:
+                            buffer.poll();
+                            break;
+                        case DROP_NEWEST:
+                            return;
+                        case ERROR:
+                            error = new IllegalStateException("Subscriber fell more than " + capacity + " events behind");
+                            cancel();
+                            break;
+                    }
+                }
+                if(error == null)
+                    buffer.add(event);
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if(n <= 0)
+            {
+                synchronized(buffer)
+                {
+                    error = new IllegalArgumentException("Requested a non-positive number of events: " + n);
+                }
+                cancel();
+            }
+            else
+            {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            remove(this);
+        }
+
+        /**
+         * Delivers buffered events while there is demand. Only one thread
+         * drains at a time; the others leave their work to it.
+         */
+        private void drain()
+        {
+            if(wip.getAndIncrement() != 0)
+                return;
+            int missed = 1;
+            do
+            {
+                Throwable failure;
+                synchronized(buffer)
+                {
+                    failure = error;
+                    error = null;
+                }
+                if(failure != null)
+                {
+                    subscriber.onError(failure);
+                    return;
+                }
+                while(!cancelled && demand.get() > 0)
+                {
+                    IPCEvent event;
+                    synchronized(buffer)
+                    {
+                        event = buffer.poll();
+                    }
+                    if(event == null)
+                        break;
+                    demand.decrementAndGet();
+                    subscriber.onNext(event);
+                }
+                missed = wip.addAndGet(-missed);
+            }
+            while(missed != 0);
+        }
+    }
+}
@@ -23,7 +23,8 @@ import com.jagrosh.discordipc.entities.User;
 /**
  * An implementable listener used to handle events caught by an {@link IPCClient}.<p>
  *
- * Can be attached to an IPCClient using {@link IPCClient#setListener(IPCListener)}.
+ * Can be attached to an IPCClient using {@link IPCClient#addListener(IPCListener)},
+ * and is only called for the events whose methods it overrides.
  *
  * @author John Grosh (john.a.grosh@gmail.com)
  */
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+import com.jagrosh.discordipc.entities.pipe.Pipe;
+import com.jagrosh.discordipc.entities.pipe.PipeMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters and histograms describing the traffic of a single {@link IPCClient}.<p>
+ *
+ * An instance is available from {@link IPCClient#getMetrics()} for the whole
+ * lifespan of the client, and is registered as an MXBean under the
+ * {@code com.jagrosh.discordipc} domain while the client is connected.<p>
+ *
+ * All recording methods are lock-free and package-private, and a
+ * {@link Pipe} records its traffic through the {@link PipeMetrics} handed
+ * to it by the library, so only the library itself can record anything.
+ */
+public final class IPCMetrics implements IPCMetricsMXBean
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(IPCMetrics.class);
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+    /**
+     * The number of pipe locations probed during discovery.
+     */
+    public static final int DISCOVERY_CANDIDATES = 10;
+
+    private final long clientId;
+    private final IntSupplier pendingCallbacks;
+    private final LongAdder[] framesIn = adders(OpCode.values().length);
+    private final LongAdder[] framesOut = adders(OpCode.values().length);
+    private final LongAdder[] bytesIn = adders(OpCode.values().length);
+    private final LongAdder[] bytesOut = adders(OpCode.values().length);
+    private final ConcurrentHashMap<String, Histogram> ackLatency = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Inflight> inflight = new ConcurrentHashMap<>();
+    private final Histogram[] discovery = new Histogram[DISCOVERY_CANDIDATES];
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder failovers = new LongAdder();
+    private final LongAdder droppedUpdates = new LongAdder();
+    private final LongAdder coalescedUpdates = new LongAdder();
+    private final LongAdder duplicateJoinRequests = new LongAdder();
+    private final LongAdder droppedJoinRequests = new LongAdder();
+    private final LongAdder dispatchBacklog = new LongAdder();
+    private final Histogram dispatchLag = new Histogram();
+    private final Histogram roundTrip = new Histogram();
+    private final AtomicLong smoothedRoundTrip = new AtomicLong(-1);
+    private ObjectName objectName = null;
+    private final PipeMetrics pipeMetrics = new PipeMetrics()
+    {
+        @Override
+        public void recordOutbound(OpCode op, int bytes)
+        {
+            IPCMetrics.this.recordOutbound(op, bytes);
+        }
+
+        @Override
+        public void recordInbound(OpCode op, int bytes)
+        {
+            IPCMetrics.this.recordInbound(op, bytes);
+        }
+
+        @Override
+        public void recordCommandSent(String nonce, String cmd)
+        {
+            IPCMetrics.this.recordCommandSent(nonce, cmd);
+        }
+
+        @Override
+        public void recordDroppedUpdate()
+        {
+            IPCMetrics.this.recordDroppedUpdate();
+        }
+
+        @Override
+        public void recordDiscoveryProbe(int index, long nanos)
+        {
+            IPCMetrics.this.recordDiscoveryProbe(index, nanos);
+        }
+    };
+
+    IPCMetrics(long clientId, IntSupplier pendingCallbacks)
+    {
+        this.clientId = clientId;
+        this.pendingCallbacks = pendingCallbacks;
+        for(int i = 0; i < discovery.length; i++)
+            discovery[i] = new Histogram();
+    }
+
+    // Recording
+
+    /**
+     * Records a frame written to Discord.
+     *
+     * @param op The {@link OpCode} of the frame.
+     * @param bytes The size of the frame, header included.
+     */
+    void recordOutbound(OpCode op, int bytes)
+    {
+        framesOut[op.ordinal()].increment();
+        bytesOut[op.ordinal()].add(bytes);
+    }
+
+    /**
+     * Records a frame read from Discord.
+     *
+     * @param op The {@link OpCode} of the frame.
+     * @param bytes The size of the frame, header included.
+     */
+    void recordInbound(OpCode op, int bytes)
+    {
+        framesIn[op.ordinal()].increment();
+        bytesIn[op.ordinal()].add(bytes);
+    }
+
+    /**
+     * Marks a command as awaiting its acknowledgement from Discord.
+     *
+     * @param nonce The nonce the command was sent with.
+     * @param cmd The command name, such as {@code SET_ACTIVITY}.
+     */
+    void recordCommandSent(String nonce, String cmd)
+    {
+        inflight.put(nonce, new Inflight(cmd, System.nanoTime()));
+    }
+
+    /**
+     * Completes a command previously passed to {@link #recordCommandSent(String, String)},
+     * recording the time it took to be acknowledged.
+     *
+     * @param nonce The nonce of the response.
+     *
+     * @return The time the command took to be acknowledged, in nanoseconds,
+     *         or {@code -1} if no command was sent with the nonce.
+     */
+    long recordCommandCompleted(String nonce)
+    {
+        Inflight sent = inflight.remove(nonce);
+        if(sent == null)
+            return -1;
+        long latency = System.nanoTime() - sent.startNanos;
+        ackLatency.computeIfAbsent(sent.cmd, k -> new Histogram()).record(latency);
+        return latency;
+    }
+
+    /**
+     * Forgets all commands still awaiting an acknowledgement,
+     * which will never arrive once a pipe has been closed.
+     */
+    void clearInflight()
+    {
+        inflight.clear();
+    }
+
+    /**
+     * Records how long probing a single discovery candidate took.
+     *
+     * @param index The index of the pipe location probed.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    void recordDiscoveryProbe(int index, long nanos)
+    {
+        if(index >= 0 && index < discovery.length)
+            discovery[index].record(nanos);
+    }
+
+    /**
+     * Records a connection being re-established.
+     */
+    void recordReconnect()
+    {
+        reconnects.increment();
+    }
+
+    /**
+     * Records a switch to a standby connection.
+     */
+    void recordFailover()
+    {
+        failovers.increment();
+    }
+
+    /**
+     * Records an update that could not be delivered to Discord.
+     */
+    void recordDroppedUpdate()
+    {
+        droppedUpdates.increment();
+    }
+
+    /**
+     * Records an update that was merged into, or skipped in favour of, another.
+     */
+    void recordCoalescedUpdate()
+    {
+        coalescedUpdates.increment();
+    }
+
+    /**
+     * Records a join request dropped as a repeat of one let through recently.
+     */
+    void recordDuplicateJoinRequest()
+    {
+        duplicateJoinRequests.increment();
+    }
+
+    /**
+     * Records a join request dropped because too many were waiting.
+     */
+    void recordDroppedJoinRequest()
+    {
+        droppedJoinRequests.increment();
+    }
+
+    /**
+     * Records an event being queued for a dispatch executor.
+     */
+    void recordDispatchQueued()
+    {
+        dispatchBacklog.increment();
+    }
+
+    /**
+     * Records a queued event starting to be handled.
+     *
+     * @param lagNanos The time the event spent queued, in nanoseconds.
+     */
+    void recordDispatchStarted(long lagNanos)
+    {
+        dispatchBacklog.decrement();
+        dispatchLag.record(lagNanos);
+    }
+
+    /**
+     * Records the round trip time of a PING answered by a PONG, folding it
+     * into the smoothed estimate with a weight of 1/8, as TCP does.
+     *
+     * @param nanos The round trip time, in nanoseconds.
+     */
+    void recordRoundTrip(long nanos)
+    {
+        roundTrip.record(nanos);
+        smoothedRoundTrip.accumulateAndGet(nanos, (srtt, sample) -> srtt < 0 ? sample : srtt + (sample - srtt) / 8);
+    }
+
+    /**
+     * @return The view of these metrics handed to each {@link Pipe}.
+     */
+    PipeMetrics forPipe()
+    {
+        return pipeMetrics;
+    }
+
+    // Reading
+
+    @Override
+    public long getClientId()
+    {
+        return clientId;
+    }
+
+    @Override
+    public Map<String, Long> getFramesIn()
+    {
+        return perOpCode(framesIn);
+    }
+
+    @Override
+    public Map<String, Long> getFramesOut()
+    {
+        return perOpCode(framesOut);
+    }
+
+    @Override
+    public Map<String, Long> getBytesIn()
+    {
+        return perOpCode(bytesIn);
+    }
+
+    @Override
+    public Map<String, Long> getBytesOut()
+    {
+        return perOpCode(bytesOut);
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getAckLatency()
+    {
+        Map<String, HistogramSnapshot> map = new LinkedHashMap<>();
+        ackLatency.forEach((cmd, histogram) -> map.put(cmd, histogram.snapshot()));
+        return map;
+    }
+
+    @Override
+    public Map<String, HistogramSnapshot> getDiscoveryTime()
+    {
+        Map<String, HistogramSnapshot> map = new LinkedHashMap<>();
+        for(int i = 0; i < discovery.length; i++)
+            map.put("discord-ipc-" + i, discovery[i].snapshot());
+        return map;
+    }
+
+    @Override
+    public HistogramSnapshot getDispatchLag()
+    {
+        return dispatchLag.snapshot();
+    }
+
+    @Override
+    public long getDispatchBacklog()
+    {
+        return dispatchBacklog.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getRoundTripTime()
+    {
+        return roundTrip.snapshot();
+    }
+
+    @Override
+    public long getSmoothedRoundTripTime()
+    {
+        return smoothedRoundTrip.get();
+    }
+
+    @Override
+    public int getPendingCallbacks()
+    {
+        return pendingCallbacks.getAsInt();
+    }
+
+    @Override
+    public int getPendingAcks()
+    {
+        return inflight.size();
+    }
+
+    @Override
+    public long getOldestPendingAckAge()
+    {
+        long now = System.nanoTime();
+        long oldest = 0;
+        for(Inflight sent : inflight.values())
+            oldest = Math.max(oldest, now - sent.startNanos);
+        return oldest;
+    }
+
+    @Override
+    public long getReconnects()
+    {
+        return reconnects.sum();
+    }
+
+    @Override
+    public long getFailovers()
+    {
+        return failovers.sum();
+    }
+
+    @Override
+    public long getDroppedUpdates()
+    {
+        return droppedUpdates.sum();
+    }
+
+    @Override
+    public long getCoalescedUpdates()
+    {
+        return coalescedUpdates.sum();
+    }
+
+    @Override
+    public long getDuplicateJoinRequests()
+    {
+        return duplicateJoinRequests.sum();
+    }
+
+    @Override
+    public long getDroppedJoinRequests()
+    {
+        return droppedJoinRequests.sum();
+    }
+
+    // JMX
+
+    /**
+     * Registers these metrics with the platform {@link MBeanServer},
+     * if they are not already registered.
+     */
+    synchronized void register()
+    {
+        if(objectName != null)
+            return;
+        try
+        {
+            ObjectName name = new ObjectName(String.format("com.jagrosh.discordipc:type=IPCClient,clientId=%d,instance=%d",
+                    clientId, INSTANCES.incrementAndGet()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            objectName = name;
+        }
+        catch(JMException | SecurityException ex)
+        {
+            LOGGER.debug("Failed to register IPC metrics MXBean", ex);
+        }
+    }
+
+    /**
+     * Removes these metrics from the platform {@link MBeanServer}.
+     */
+    synchronized void unregister()
+    {
+        if(objectName == null)
+            return;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        }
+        catch(JMException | SecurityException ex)
+        {
+            LOGGER.debug("Failed to unregister IPC metrics MXBean", ex);
+        }
+        objectName = null;
+    }
+
+    // Private methods
+
+    private static LongAdder[] adders(int length)
+    {
+        LongAdder[] adders = new LongAdder[length];
+        for(int i = 0; i < length; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private static Map<String, Long> perOpCode(LongAdder[] adders)
+    {
+        Map<String, Long> map = new LinkedHashMap<>();
+        for(OpCode op : OpCode.values())
+            map.put(op.name(), adders[op.ordinal()].sum());
+        return map;
+    }
+
+    private static final class Inflight
+    {
+        private final String cmd;
+        private final long startNanos;
+
+        private Inflight(String cmd, long startNanos)
+        {
+            this.cmd = cmd;
+            this.startNanos = startNanos;
+        }
+    }
+
+    /**
+     * A lock-free histogram of durations with fixed, power-of-two
+     * microsecond buckets.<p>
+     *
+     * Bucket {@code i} counts values below {@code 2^(i+1)} microseconds,
+     * so percentiles are reported as the upper bound of their bucket.
+     */
+    public static final class Histogram
+    {
+        private static final int BUCKETS = 32;
+
+        private final LongAdder[] buckets = adders(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Records a single duration.
+         *
+         * @param nanos The duration, in nanoseconds.
+         */
+        public void record(long nanos)
+        {
+            if(nanos < 0)
+                nanos = 0;
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+            buckets[bucket].increment();
+            count.increment();
+            sum.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        /**
+         * Takes a point-in-time copy of this histogram.<br>
+         * Values recorded concurrently may or may not be included.
+         *
+         * @return A {@link HistogramSnapshot} of this histogram.
+         */
+        public HistogramSnapshot snapshot()
+        {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for(int i = 0; i < BUCKETS; i++)
+            {
+                counts[i] = buckets[i].sum();
+                total += counts[i];
+            }
+            return new HistogramSnapshot(total, total == 0 ? 0 : sum.sum() / total, max.get(),
+                    percentile(counts, total, 0.50), percentile(counts, total, 0.90), percentile(counts, total, 0.99));
+        }
+
+        private static long percentile(long[] counts, long total, double quantile)
+        {
+            if(total == 0)
+                return 0;
+            long target = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for(int i = 0; i < counts.length; i++)
+            {
+                seen += counts[i];
+                if(seen >= target)
+                    return TimeUnit.MICROSECONDS.toNanos(1L << (i + 1));
+            }
+            return TimeUnit.MICROSECONDS.toNanos(1L << BUCKETS);
+        }
+    }
+
+    /**
+     * An immutable view of a {@link Histogram}, with all values in nanoseconds.
+     */
+    public static final class HistogramSnapshot
+    {
+        private final long count;
+        private final long mean;
+        private final long max;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+
+        HistogramSnapshot(long count, long mean, long max, long p50, long p90, long p99)
+        {
+            this.count = count;
+            this.mean = mean;
+            this.max = max;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getMean()
+        {
+            return mean;
+        }
+
+        public long getMax()
+        {
+            return max;
+        }
+
+        public long getP50()
+        {
+            return p50;
+        }
+
+        public long getP90()
+        {
+            return p90;
+        }
+
+        public long getP99()
+        {
+            return p99;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("count=%d mean=%dns max=%dns p50<=%dns p90<=%dns p99<=%dns", count, mean, max, p50, p90, p99);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.IPCMetrics.HistogramSnapshot;
+
+import java.util.Map;
+
+/**
+ * The JMX management interface of {@link IPCMetrics}.<p>
+ *
+ * All durations are reported in nanoseconds.
+ */
+public interface IPCMetricsMXBean
+{
+    /**
+     * @return The client ID of the {@link IPCClient} these metrics belong to.
+     */
+    long getClientId();
+
+    /**
+     * @return The number of frames received, keyed by OpCode.
+     */
+    Map<String, Long> getFramesIn();
+
+    /**
+     * @return The number of frames sent, keyed by OpCode.
+     */
+    Map<String, Long> getFramesOut();
+
+    /**
+     * @return The number of bytes received, keyed by OpCode.
+     */
+    Map<String, Long> getBytesIn();
+
+    /**
+     * @return The number of bytes sent, keyed by OpCode.
+     */
+    Map<String, Long> getBytesOut();
+
+    /**
+     * @return The time between sending a command and receiving its response, keyed by command.
+     */
+    Map<String, HistogramSnapshot> getAckLatency();
+
+    /**
+     * @return The time spent probing each pipe location during discovery, keyed by pipe name.
+     */
+    Map<String, HistogramSnapshot> getDiscoveryTime();
+
+    /**
+     * @return The time events spent queued before a dispatch executor handled them.
+     */
+    HistogramSnapshot getDispatchLag();
+
+    /**
+     * @return The number of events queued for a dispatch executor and not yet handled.
+     */
+    long getDispatchBacklog();
+
+    /**
+     * @return The round trip times of PINGs answered by Discord.
+     */
+    HistogramSnapshot getRoundTripTime();
+
+    /**
+     * @return The smoothed round trip time to Discord, or {@code -1} if no PING has been answered.
+     */
+    long getSmoothedRoundTripTime();
+
+    /**
+     * @return The number of callbacks still awaiting a response.
+     */
+    int getPendingCallbacks();
+
+    /**
+     * @return The number of commands still awaiting a response.
+     */
+    int getPendingAcks();
+
+    /**
+     * @return How long the oldest command still awaiting a response has waited, or {@code 0} if none are.
+     */
+    long getOldestPendingAckAge();
+
+    /**
+     * @return The number of times the client has reconnected.
+     */
+    long getReconnects();
+
+    /**
+     * @return The number of times the client has switched to a standby connection.
+     */
+    long getFailovers();
+
+    /**
+     * @return The number of updates that could not be delivered.
+     */
+    long getDroppedUpdates();
+
+    /**
+     * @return The number of updates merged into, or skipped in favour of, another.
+     */
+    long getCoalescedUpdates();
+
+    /**
+     * @return The number of join requests dropped as repeats of one let through recently.
+     */
+    long getDuplicateJoinRequests();
+
+    /**
+     * @return The number of join requests dropped because too many were waiting for the listeners.
+     */
+    long getDroppedJoinRequests();
+}
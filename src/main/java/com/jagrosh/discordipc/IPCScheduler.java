@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * The single timer thread shared by every {@link IPCClient} in the JVM
+ * for periodic work, so that enabling a timed feature on many clients
+ * doesn't cost a thread each.<p>
+ *
+ * Tasks run here must be short and must never block on the pipe.
+ */
+final class IPCScheduler
+{
+    private static final ScheduledThreadPoolExecutor TIMER;
+
+    static
+    {
+        TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "IPCClient Timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private IPCScheduler() {}
+
+    static ScheduledExecutorService get()
+    {
+        return TIMER;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient.DropPolicy;
+import com.jagrosh.discordipc.entities.User;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands between {@code ACTIVITY_JOIN_REQUEST} events and the listeners
+ * handling them, so that a burst of requests costs bounded memory and work.<p>
+ *
+ * A request from a user whose previous request was accepted within the
+ * deduplication window is dropped. Accepted requests wait in a bounded queue
+ * until a listener gets to them, and once it is full the {@link DropPolicy}
+ * decides which request makes way. The {@link User} of each recent requester
+ * is cached, least recently used first out, so that someone asking again
+ * doesn't cost another allocation unless their profile changed.
+ */
+final class JoinRequestGate
+{
+    static final int USER_CACHE_SIZE = 256;
+    static final long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    static final int DEFAULT_MAX_PENDING = 64;
+
+    private final IPCMetrics metrics;
+    private final Map<Long, Requester> requesters = new LinkedHashMap<Long, Requester>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Requester> eldest)
+        {
+            return size() > USER_CACHE_SIZE;
+        }
+    };
+    private final ArrayDeque<Request> pending = new ArrayDeque<>();
+    private long windowNanos = DEFAULT_WINDOW_NANOS;
+    private int maxPending = DEFAULT_MAX_PENDING;
+    private DropPolicy policy = DropPolicy.DROP_OLDEST;
+    private boolean draining = false;
+
+    JoinRequestGate(IPCMetrics metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    synchronized void setLimits(long windowNanos, int maxPending, DropPolicy policy)
+    {
+        this.windowNanos = windowNanos;
+        this.maxPending = maxPending;
+        this.policy = policy;
+        while(pending.size() > maxPending)
+        {
+            pending.pollFirst();
+            metrics.recordDroppedJoinRequest();
+        }
+    }
+
+    /**
+     * Queues a join request, unless it is a duplicate or the queue is full.
+     *
+     * @param data The data of the {@code ACTIVITY_JOIN_REQUEST} event.
+     *
+     * @return Whether the queue needs draining, as nothing is draining it yet.
+     */
+    synchronized boolean offer(JsonObject data)
+    {
+        JsonObject u = data.getAsJsonObject("user");
+        long id = Long.parseLong(u.get("id").getAsString());
+        long now = System.nanoTime();
+
+        Requester requester = requesters.get(id);
+        if(requester != null && now - requester.acceptedNanos < windowNanos)
+        {
+            metrics.recordDuplicateJoinRequest();
+            return false;
+        }
+        if(pending.size() >= maxPending)
+        {
+            metrics.recordDroppedJoinRequest();
+            if(policy == DropPolicy.DROP_NEWEST || maxPending == 0)
+                return false;
+            pending.pollFirst();
+        }
+
+        String name = u.get("username").getAsString();
+        String discriminator = u.get("discriminator").getAsString();
+        String avatar = Utils.getJsonStringOrDefault(u, "avatar", null);
+        if(requester == null)
+        {
+            requester = new Requester();
+            requesters.put(id, requester);
+        }
+        User user = requester.user;
+        if(user == null || !user.getName().equals(name) || !user.getDiscriminator().equals(discriminator)
+                || !Objects.equals(user.getAvatarId(), avatar))
+            requester.user = new User(name, discriminator, id, avatar);
+        requester.acceptedNanos = now;
+
+        pending.addLast(new Request(Utils.getJsonStringOrDefault(data, "secret", null), requester.user));
+        if(draining)
+            return false;
+        draining = true;
+        return true;
+    }
+
+    /**
+     * Takes the oldest queued join request.
+     *
+     * @return The request, or {@code null} once the queue is drained.
+     */
+    synchronized Request poll()
+    {
+        Request request = pending.pollFirst();
+        if(request == null)
+            draining = false;
+        return request;
+    }
+
+    /**
+     * A join request waiting for the listeners.
+     */
+    static final class Request
+    {
+        final String secret;
+        final User user;
+
+        private Request(String secret, User user)
+        {
+            this.secret = secret;
+            this.user = user;
+        }
+    }
+
+    private static final class Requester
+    {
+        private User user;
+        private long acceptedNanos;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonElement;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.User;
+import com.jagrosh.discordipc.jfr.ListenerDispatchEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivers events from an {@link IPCClient} to its {@link IPCListener IPCListeners}
+ * and to the {@link Callback Callbacks} awaiting responses.<p>
+ *
+ * Without an {@link Executor} every event is handled inline on the calling
+ * thread, which is usually the reading thread. With one, each kind of event
+ * is queued on its own {@link Lane}, so events of the same kind are still
+ * handled one at a time and in the order they arrived, while the reading
+ * thread goes straight back to the pipe.
+ */
+final class ListenerDispatcher implements IPCListener
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListenerDispatcher.class);
+
+    private final IPCMetrics metrics;
+    private final SerialLane[] lanes = new SerialLane[Lane.values().length];
+    private final ListenerRegistry registry = new ListenerRegistry();
+    private volatile Executor executor = null;
+
+    ListenerDispatcher(IPCMetrics metrics)
+    {
+        this.metrics = metrics;
+        for(Lane lane : Lane.values())
+            lanes[lane.ordinal()] = new SerialLane(lane);
+    }
+
+    ListenerRegistry getRegistry()
+    {
+        return registry;
+    }
+
+    void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Completes a {@link Callback} with a successful response.
+     *
+     * @param callback The Callback to complete.
+     * @param packet The response.
+     */
+    void succeed(Callback callback, Packet packet)
+    {
+        dispatch(Lane.CALLBACK, () -> callback.succeed(packet));
+    }
+
+    /**
+     * @return An executor running tasks on the lane {@link Callback Callbacks} are completed on.
+     */
+    Executor callbackExecutor()
+    {
+        return task -> dispatch(Lane.CALLBACK, task);
+    }
+
+    /**
+     * Completes a {@link Callback} with an error.
+     *
+     * @param callback The Callback to complete.
+     * @param message The error message.
+     */
+    void fail(Callback callback, String message)
+    {
+        dispatch(Lane.CALLBACK, () -> callback.fail(message));
+    }
+
+    @Override
+    public void onPacketSent(IPCClient client, Packet packet)
+    {
+        IPCListener[] listeners = registry.get(Lane.PACKET_SENT);
+        if(listeners.length != 0)
+            dispatch(Lane.PACKET_SENT, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onPacketSent(client, packet));
+            });
+    }
+
+    @Override
+    public void onPacketReceived(IPCClient client, Packet packet)
+    {
+        IPCListener[] listeners = registry.get(Lane.PACKET_RECEIVED);
+        if(listeners.length != 0)
+            dispatch(Lane.PACKET_RECEIVED, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onPacketReceived(client, packet));
+            });
+    }
+
+    @Override
+    public void onActivityJoin(IPCClient client, String secret)
+    {
+        IPCListener[] listeners = registry.get(Lane.ACTIVITY_JOIN);
+        if(listeners.length != 0)
+            dispatch(Lane.ACTIVITY_JOIN, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onActivityJoin(client, secret));
+            });
+    }
+
+    @Override
+    public void onActivitySpectate(IPCClient client, String secret)
+    {
+        IPCListener[] listeners = registry.get(Lane.ACTIVITY_SPECTATE);
+        if(listeners.length != 0)
+            dispatch(Lane.ACTIVITY_SPECTATE, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onActivitySpectate(client, secret));
+            });
+    }
+
+    @Override
+    public void onActivityJoinRequest(IPCClient client, String secret, User user)
+    {
+        IPCListener[] listeners = registry.get(Lane.ACTIVITY_JOIN_REQUEST);
+        if(listeners.length != 0)
+            dispatch(Lane.ACTIVITY_JOIN_REQUEST, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onActivityJoinRequest(client, secret, user));
+            });
+    }
+
+    /**
+     * Delivers the join requests waiting in a {@link JoinRequestGate} one after
+     * another, until it is drained. Only one drain runs at a time, as the gate
+     * only asks for another once the last has found it empty.
+     *
+     * @param client The IPCClient the requests were received by.
+     * @param gate The gate holding the requests.
+     */
+    void drainJoinRequests(IPCClient client, JoinRequestGate gate)
+    {
+        dispatch(Lane.ACTIVITY_JOIN_REQUEST, () -> {
+            JoinRequestGate.Request request;
+            while((request = gate.poll()) != null)
+            {
+                JoinRequestGate.Request r = request;
+                for(IPCListener l : registry.get(Lane.ACTIVITY_JOIN_REQUEST))
+                    invoke(() -> l.onActivityJoinRequest(client, r.secret, r.user));
+            }
+        });
+    }
+
+    @Override
+    public void onReady(IPCClient client)
+    {
+        IPCListener[] listeners = registry.get(Lane.READY);
+        if(listeners.length != 0)
+            dispatch(Lane.READY, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onReady(client));
+            });
+    }
+
+    @Override
+    public void onClose(IPCClient client, JsonElement json)
+    {
+        IPCListener[] listeners = registry.get(Lane.CLOSE);
+        if(listeners.length != 0)
+            dispatch(Lane.CLOSE, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onClose(client, json));
+            });
+    }
+
+    @Override
+    public void onDisconnect(IPCClient client, Throwable t)
+    {
+        IPCListener[] listeners = registry.get(Lane.DISCONNECT);
+        if(listeners.length != 0)
+            dispatch(Lane.DISCONNECT, () -> {
+                for(IPCListener l : listeners)
+                    invoke(() -> l.onDisconnect(client, t));
+            });
+    }
+
+    // Private methods
+
+    private void dispatch(Lane lane, Runnable task)
+    {
+        Executor ex = executor;
+        if(ex == null)
+            run(lane, task);
+        else
+            lanes[lane.ordinal()].submit(ex, task);
+    }
+
+    private static void run(Lane lane, Runnable task)
+    {
+        ListenerDispatchEvent event = new ListenerDispatchEvent();
+        event.begin();
+        invoke(task);
+        event.end();
+        if(event.shouldCommit())
+        {
+            event.event = lane.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Runs a single listener or callback, so that one throwing
+     * doesn't stop the others from being notified.
+     */
+    private static void invoke(Runnable call)
+    {
+        try
+        {
+            call.run();
+        }
+        catch(Exception e)
+        {
+            LOGGER.error("Exception when handling event: ", e);
+        }
+    }
+
+    /**
+     * The kinds of event that are kept in order relative to each other,
+     * along with the {@link IPCListener} method that handles each.
+     */
+    enum Lane
+    {
+        PACKET_SENT("onPacketSent", IPCClient.class, Packet.class),
+        PACKET_RECEIVED("onPacketReceived", IPCClient.class, Packet.class),
+        ACTIVITY_JOIN("onActivityJoin", IPCClient.class, String.class),
+        ACTIVITY_SPECTATE("onActivitySpectate", IPCClient.class, String.class),
+        ACTIVITY_JOIN_REQUEST("onActivityJoinRequest", IPCClient.class, String.class, User.class),
+        READY("onReady", IPCClient.class),
+        CLOSE("onClose", IPCClient.class, JsonElement.class),
+        DISCONNECT("onDisconnect", IPCClient.class, Throwable.class),
+        CALLBACK(null);
+
+        private final Method listenerMethod;
+
+        Lane(String methodName, Class<?>... parameterTypes)
+        {
+            try
+            {
+                this.listenerMethod = methodName == null ? null : IPCListener.class.getMethod(methodName, parameterTypes);
+            }
+            catch(NoSuchMethodException ex)
+            {
+                throw new ExceptionInInitializerError(ex);
+            }
+        }
+
+        /**
+         * @return The {@link IPCListener} method handling this Lane, or {@code null} for callbacks.
+         */
+        Method getListenerMethod()
+        {
+            return listenerMethod;
+        }
+    }
+
+    /**
+     * Runs the tasks of a single {@link Lane} one after another on an
+     * {@link Executor}, never occupying more than one of its threads.
+     */
+    private final class SerialLane implements Runnable
+    {
+        private final Lane lane;
+        private final ConcurrentLinkedQueue<Task> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile Executor executor;
+
+        private SerialLane(Lane lane)
+        {
+            this.lane = lane;
+        }
+
+        private void submit(Executor executor, Runnable task)
+        {
+            queue.add(new Task(task, System.nanoTime()));
+            metrics.recordDispatchQueued();
+            if(scheduled.compareAndSet(false, true))
+            {
+                this.executor = executor;
+                try
+                {
+                    executor.execute(this);
+                }
+                catch(RejectedExecutionException ex)
+                {
+                    LOGGER.warn("Dispatch executor rejected {} events, handling them inline", lane);
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            Task task;
+            while((task = queue.poll()) != null)
+            {
+                metrics.recordDispatchStarted(System.nanoTime() - task.queuedNanos);
+                ListenerDispatcher.run(lane, task.runnable);
+            }
+            scheduled.set(false);
+            // a task may have been queued after the last poll but before the flag was cleared
+            if(!queue.isEmpty() && scheduled.compareAndSet(false, true))
+            {
+                try
+                {
+                    executor.execute(this);
+                }
+                catch(RejectedExecutionException ex)
+                {
+                    LOGGER.warn("Dispatch executor rejected {} events, handling them inline", lane);
+                    run();
+                }
+            }
+        }
+    }
+
+    private static final class Task
+    {
+        private final Runnable runnable;
+        private final long queuedNanos;
+
+        private Task(Runnable runnable, long queuedNanos)
+        {
+            this.runnable = runnable;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+}
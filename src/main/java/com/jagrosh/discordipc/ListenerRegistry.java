@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.ListenerDispatcher.Lane;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * The {@link IPCListener IPCListeners} registered on an {@link IPCClient},
+ * indexed by the events each of them handles.<p>
+ *
+ * A listener's interest is worked out once, when it is added, from the
+ * methods it overrides. Each {@link Lane} then holds a copy-on-write array
+ * of only the listeners that override its method, so listeners relying on
+ * the no-op defaults are never called for that event.<p>
+ *
+ * Listeners the library registers for itself are added with
+ * {@link #addInternal(IPCListener)}, and are kept by {@link #clear()}.
+ */
+final class ListenerRegistry
+{
+    private static final IPCListener[] EMPTY = new IPCListener[0];
+
+    private final Object lock = new Object();
+    private final Set<IPCListener> internal = Collections.newSetFromMap(new IdentityHashMap<>());
+    private volatile IPCListener[][] byLane = empty();
+
+    /**
+     * Gets the listeners handling events of the given {@link Lane}.<br>
+     * The returned array must not be modified.
+     *
+     * @param lane The Lane to get listeners for.
+     *
+     * @return The listeners, in the order they were added.
+     */
+    IPCListener[] get(Lane lane)
+    {
+        return byLane[lane.ordinal()];
+    }
+
+    /**
+     * @return Whether any listener is registered at all.
+     */
+    boolean isEmpty()
+    {
+        for(IPCListener[] listeners : byLane)
+            if(listeners.length != 0)
+                return false;
+        return true;
+    }
+
+    void add(IPCListener listener)
+    {
+        EnumSet<Lane> interest = interestOf(listener);
+        synchronized(lock)
+        {
+            IPCListener[][] updated = byLane.clone();
+            for(Lane lane : interest)
+            {
+                IPCListener[] old = updated[lane.ordinal()];
+                if(Arrays.asList(old).contains(listener))
+                    continue;
+                IPCListener[] added = Arrays.copyOf(old, old.length + 1);
+                added[old.length] = listener;
+                updated[lane.ordinal()] = added;
+            }
+            byLane = updated;
+        }
+    }
+
+    /**
+     * Adds a listener the library relies on internally, which
+     * {@link #clear()} leaves in place. It is only taken out
+     * again by {@link #remove(IPCListener)}.
+     *
+     * @param listener The listener to add.
+     */
+    void addInternal(IPCListener listener)
+    {
+        synchronized(lock)
+        {
+            internal.add(listener);
+            add(listener);
+        }
+    }
+
+    void remove(IPCListener listener)
+    {
+        synchronized(lock)
+        {
+            internal.remove(listener);
+            IPCListener[][] updated = byLane.clone();
+            for(int i = 0; i < updated.length; i++)
+            {
+                IPCListener[] old = updated[i];
+                int index = Arrays.asList(old).indexOf(listener);
+                if(index < 0)
+                    continue;
+                IPCListener[] removed = new IPCListener[old.length - 1];
+                System.arraycopy(old, 0, removed, 0, index);
+                System.arraycopy(old, index + 1, removed, index, old.length - index - 1);
+                updated[i] = removed;
+            }
+            byLane = updated;
+        }
+    }
+
+    /**
+     * Removes every listener except those added with {@link #addInternal(IPCListener)}.
+     */
+    void clear()
+    {
+        synchronized(lock)
+        {
+            IPCListener[][] updated = empty();
+            for(int i = 0; i < updated.length; i++)
+                updated[i] = Arrays.stream(byLane[i]).filter(internal::contains).toArray(IPCListener[]::new);
+            byLane = updated;
+        }
+    }
+
+    private static IPCListener[][] empty()
+    {
+        IPCListener[][] lanes = new IPCListener[Lane.values().length][];
+        Arrays.fill(lanes, EMPTY);
+        return lanes;
+    }
+
+    /**
+     * Finds the {@link Lane Lanes} whose {@link IPCListener} method the
+     * given listener overrides.
+     *
+     * @param listener The listener to inspect.
+     *
+     * @return The Lanes the listener handles.
+     */
+    private static EnumSet<Lane> interestOf(IPCListener listener)
+    {
+        EnumSet<Lane> interest = EnumSet.noneOf(Lane.class);
+        for(Lane lane : Lane.values())
+        {
+            Method method = lane.getListenerMethod();
+            if(method == null)
+                continue;
+            try
+            {
+                if(listener.getClass().getMethod(method.getName(), method.getParameterTypes()).getDeclaringClass() != IPCListener.class)
+                    interest.add(lane);
+            }
+            catch(NoSuchMethodException | SecurityException ex)
+            {
+                // be safe and deliver everything if we can't tell
+                interest.add(lane);
+            }
+        }
+        return interest;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+import com.jagrosh.discordipc.entities.pipe.Pipe;
+import com.jagrosh.discordipc.entities.pipe.PipeStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Detects connections to Discord that have silently stopped working.<p>
+ *
+ * Run periodically on the {@link IPCScheduler}, it watches how long ago
+ * the pipe last read anything and how long the oldest unanswered command
+ * has waited. Once either passes the timeout it probes Discord with a
+ * {@link OpCode#PING}, and if nothing at all is read within another
+ * timeout, it declares the connection dead.
+ */
+final class LivenessWatchdog implements Runnable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LivenessWatchdog.class);
+
+    private final Supplier<Pipe> pipe;
+    private final IPCMetrics metrics;
+    private final long timeoutNanos;
+    private final Consumer<IOException> onDead;
+    private boolean probing = false;
+    private long probeSentNanos = 0;
+
+    /**
+     * @param pipe Supplies the current pipe, or {@code null}.
+     * @param metrics The metrics tracking unanswered commands.
+     * @param timeoutNanos How long to wait, first before probing and then for the probe.
+     * @param onDead Called on the timer thread once the connection is declared dead.
+     */
+    LivenessWatchdog(Supplier<Pipe> pipe, IPCMetrics metrics, long timeoutNanos, Consumer<IOException> onDead)
+    {
+        this.pipe = pipe;
+        this.metrics = metrics;
+        this.timeoutNanos = timeoutNanos;
+        this.onDead = onDead;
+    }
+
+    @Override
+    public void run()
+    {
+        Pipe current = pipe.get();
+        if(current == null || current.getStatus() != PipeStatus.CONNECTED)
+        {
+            probing = false;
+            return;
+        }
+
+        long now = System.nanoTime();
+        long lastRead = current.getLastReadNanos();
+        if(probing)
+        {
+            if(lastRead - probeSentNanos >= 0)
+                probing = false;
+            else if(now - probeSentNanos > timeoutNanos)
+            {
+                probing = false;
+                onDead.accept(new IOException(String.format("No response from Discord for %d ms", (now - lastRead) / 1_000_000)));
+            }
+            return;
+        }
+
+        boolean idle = now - lastRead > timeoutNanos;
+        boolean ackOverdue = metrics.getOldestPendingAckAge() > timeoutNanos;
+        if((idle || ackOverdue) && now - probeSentNanos > timeoutNanos)
+        {
+            LOGGER.debug("Probing Discord (idle: {}, ack overdue: {})", idle, ackOverdue);
+            probing = true;
+            probeSentNanos = now;
+            // the write may block on a hung connection, so keep it off the shared timer thread
+            ForkJoinPool.commonPool().execute(() -> current.sendRaw(OpCode.PING, new JsonObject()));
+        }
+    }
+}
@@ -0,0 +1,619 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.IPCClient.Event;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+import com.jagrosh.discordipc.entities.pipe.Pipe;
+import com.jagrosh.discordipc.entities.pipe.PipeStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Shares one connection to Discord between every {@link IPCClient} with
+ * the same client ID on this machine.<p>
+ *
+ * The IPCClient that connects first owns the real pipe and serves a local
+ * socket, found at {@link Pipe#getBrokerLocation(long)}, that speaks the same
+ * framing as Discord. IPCClients connecting later talk to the broker instead
+ * of doing their own discovery and handshake.<p>
+ *
+ * Every participant contributes a presence with a priority. Discord is sent
+ * the presence with the highest priority, the most recently set one winning
+ * ties, and nothing at all when that presence has not changed. A peer's
+ * {@code SET_ACTIVITY} is answered with Discord's response when it changed
+ * what Discord shows, and acknowledged straight away when it didn't.<p>
+ *
+ * A peer's {@code SUBSCRIBE} and {@code UNSUBSCRIBE} take and release
+ * references through the owning IPCClient's {@link SubscriptionManager}, so
+ * no participant can undo another's subscription, and each {@code DISPATCH}
+ * is passed on only to the peers subscribed to its event. Other commands are
+ * forwarded to Discord as they are.
+ *
+ * @see IPCClient#setBrokered(boolean, int)
+ */
+final class PresenceBroker implements Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PresenceBroker.class);
+    private static final Object OWNER = new Object();
+
+    private final IPCClient client;
+    private final SubscriptionManager subscriptions;
+    private final long clientId;
+    private final int ownerPriority;
+    private final Packet ready;
+    private final Path location;
+    private final ServerSocketChannel server;
+    private final CopyOnWriteArraySet<Peer> peers = new CopyOnWriteArraySet<>();
+    private final Map<Object, Contribution> contributions = new HashMap<>();
+    private final Queue<Outgoing> outbox = new ArrayDeque<>();
+    private final Object sending = new Object();
+    private final IPCListener listener = new Relay();
+    private long sequence = 0;
+    private Contribution sent = null;
+    private volatile boolean closed = false;
+
+    private PresenceBroker(IPCClient client, SubscriptionManager subscriptions, long clientId, int ownerPriority,
+                           Packet ready, Path location, ServerSocketChannel server)
+    {
+        this.client = client;
+        this.subscriptions = subscriptions;
+        this.clientId = clientId;
+        this.ownerPriority = ownerPriority;
+        this.ready = ready;
+        this.location = location;
+        this.server = server;
+    }
+
+    /**
+     * Starts serving the connection of an {@link IPCClient} to other processes.
+     *
+     * @param client The IPCClient owning the connection.
+     * @param subscriptions The IPCClient's subscriptions, shared with peers.
+     * @param clientId The client ID peers have to handshake with.
+     * @param ownerPriority The priority of the owning IPCClient's own presence.
+     * @param ready The {@code READY} Discord answered the handshake with, passed on to peers.
+     *
+     * @return The running broker.
+     *
+     * @throws IOException If the socket cannot be served, for example
+     *                     because another process is already serving it.
+     */
+    static PresenceBroker start(IPCClient client, SubscriptionManager subscriptions, long clientId, int ownerPriority,
+                                Packet ready) throws IOException
+    {
+        Path location = Pipe.getBrokerLocation(clientId);
+        if(Files.exists(location))
+        {
+            // a broker that died without cleaning up leaves its socket behind
+            try
+            {
+                SocketChannel.open(UnixDomainSocketAddress.of(location)).close();
+                throw new IOException("A broker is already serving " + location);
+            }
+            catch(ConnectException ex)
+            {
+                LOGGER.debug("Removing stale broker socket: {}", location);
+                Files.deleteIfExists(location);
+            }
+        }
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try
+        {
+            server.bind(UnixDomainSocketAddress.of(location));
+        }
+        catch(IOException ex)
+        {
+            server.close();
+            throw ex;
+        }
+
+        PresenceBroker broker = new PresenceBroker(client, subscriptions, clientId, ownerPriority, ready, location, server);
+        client.addInternalListener(broker.listener);
+        Thread acceptor = new Thread(broker::accept, "IPCClient Broker");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("Serving presence broker at {}", location);
+        return broker;
+    }
+
+    /**
+     * Sets the presence of the owning {@link IPCClient}.
+     *
+     * @param activity The activity, or {@code null} to clear it.
+     * @param callback Completed with Discord's response if this changed the
+     *                 presence sent to Discord, or with a {@code null} Packet
+     *                 straight away if it didn't. May be {@code null}.
+     */
+    void setOwnerActivity(JsonElement activity, Callback callback)
+    {
+        update(OWNER, ownerPriority, IPCClient.getPID(), activity, callback);
+    }
+
+    /**
+     * Sends Discord the current winning presence again, for a connection
+     * that has not seen it yet.
+     */
+    void resend()
+    {
+        synchronized(contributions)
+        {
+            if(sent != null && !closed)
+                outbox.add(new Outgoing(sent, null));
+        }
+        flush();
+    }
+
+    @Override
+    public void close()
+    {
+        if(closed)
+            return;
+        closed = true;
+        client.removeListener(listener);
+        try
+        {
+            server.close();
+            Files.deleteIfExists(location);
+        }
+        catch(IOException ex)
+        {
+            LOGGER.debug("Failed to close broker socket", ex);
+        }
+        for(Peer peer : peers)
+            peer.close();
+        LOGGER.debug("Stopped presence broker at {}", location);
+    }
+
+    // Private methods
+
+    private void accept()
+    {
+        while(!closed)
+        {
+            try
+            {
+                Peer peer = new Peer(server.accept());
+                Thread reader = new Thread(peer, "IPCClient Broker Peer");
+                reader.setDaemon(true);
+                reader.start();
+            }
+            catch(IOException ex)
+            {
+                if(!closed)
+                {
+                    LOGGER.error("Presence broker stopped accepting peers", ex);
+                    close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a participant's presence and sends Discord the winning one if it changed.
+     */
+    private void update(Object participant, int priority, long pid, JsonElement activity, Callback callback)
+    {
+        Callback unchanged = null;
+        synchronized(contributions)
+        {
+            if(activity == null || activity.isJsonNull())
+                contributions.remove(participant);
+            else
+                contributions.put(participant, new Contribution(priority, ++sequence, pid, activity));
+
+            Contribution winner = null;
+            for(Contribution c : contributions.values())
+                if(winner == null || c.priority > winner.priority
+                        || (c.priority == winner.priority && c.sequence > winner.sequence))
+                    winner = c;
+            if(winner == null)
+                winner = new Contribution(0, 0, IPCClient.getPID(), JsonNull.INSTANCE);
+
+            if(winner.sameAs(sent))
+                unchanged = callback;
+            else
+            {
+                sent = winner;
+                outbox.add(new Outgoing(winner, callback));
+            }
+        }
+        flush();
+        if(unchanged != null)
+            unchanged.succeed(null);
+    }
+
+    /**
+     * Sends Discord every queued presence, in the order they won.
+     * Must not hold the {@code contributions} lock.
+     */
+    private void flush()
+    {
+        synchronized(sending)
+        {
+            while(true)
+            {
+                Outgoing next;
+                synchronized(contributions)
+                {
+                    next = outbox.poll();
+                }
+                if(next == null)
+                    return;
+                if(!closed && client.getStatus() == PipeStatus.CONNECTED)
+                    client.sendActivity(next.contribution.pid, next.contribution.activity, next.callback);
+                else if(next.callback != null)
+                    next.callback.fail("IPCClient is not connected");
+            }
+        }
+    }
+
+    private void forget(Peer peer)
+    {
+        if(!peers.remove(peer))
+            return;
+        update(peer, 0, 0, null, null);
+        for(Event event : peer.release())
+            subscriptions.unsubscribePeer(event, null);
+    }
+
+    private static byte[] frame(OpCode op, JsonElement json)
+    {
+        return new Packet(op, json).toBytes();
+    }
+
+    /**
+     * Passes each {@code DISPATCH} from Discord on to the peers subscribed
+     * to its event, and stops the broker once the owning connection ends.
+     */
+    private final class Relay implements IPCListener
+    {
+        @Override
+        public void onPacketReceived(IPCClient client, Packet packet)
+        {
+            if(packet.getOp() != OpCode.FRAME || !packet.getJson().isJsonObject()
+                    || !"DISPATCH".equals(Utils.getJsonStringOrDefault(packet.getJson().getAsJsonObject(), "cmd", null)))
+                return;
+            Event event = Event.of(Utils.getJsonStringOrDefault(packet.getJson().getAsJsonObject(), "evt", null));
+            byte[] bytes = null;
+            for(Peer peer : peers)
+            {
+                if(!peer.isSubscribed(event))
+                    continue;
+                if(bytes == null)
+                    bytes = packet.toBytes();
+                peer.write(bytes);
+            }
+        }
+
+        @Override
+        public void onClose(IPCClient client, JsonElement json)
+        {
+            close();
+        }
+
+        @Override
+        public void onDisconnect(IPCClient client, Throwable t)
+        {
+            close();
+        }
+    }
+
+    /**
+     * A process connected to the broker.
+     */
+    private final class Peer implements Runnable
+    {
+        private final SocketChannel channel;
+        private final Set<Event> events = EnumSet.noneOf(Event.class);
+        private int priority = 0;
+
+        private Peer(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                if(!handshake())
+                    return;
+                peers.add(this);
+                if(closed)
+                    return;
+                while(true)
+                {
+                    Packet p = read();
+                    switch(p.getOp())
+                    {
+                        case PING:
+                            write(frame(OpCode.PONG, p.getJson()));
+                            break;
+                        case FRAME:
+                            handle(p.getJson().getAsJsonObject());
+                            break;
+                        case CLOSE:
+                            return;
+                        default:
+                            break;
+                    }
+                }
+            }
+            catch(IOException | JsonIOException | IllegalStateException ex)
+            {
+                if(!closed)
+                    LOGGER.debug("Broker peer disconnected: {}", ex.toString());
+            }
+            finally
+            {
+                forget(this);
+                close();
+            }
+        }
+
+        private boolean handshake() throws IOException
+        {
+            Packet p = read();
+            JsonObject json = p.getJson().getAsJsonObject();
+            if(p.getOp() != OpCode.HANDSHAKE || !Long.toString(clientId).equals(Utils.getJsonStringOrDefault(json, "client_id", null)))
+            {
+                JsonObject error = new JsonObject();
+                error.addProperty("code", 4000);
+                error.addProperty("message", "Invalid Client ID");
+                write(frame(OpCode.CLOSE, error));
+                return false;
+            }
+            priority = Utils.getJsonOrDefault(json, Pipe.BROKER_PRIORITY, 0, JsonElement::getAsInt);
+            write(frame(OpCode.FRAME, ready.getJson()));
+            return true;
+        }
+
+        private void handle(JsonObject json)
+        {
+            String cmd = Utils.getJsonStringOrDefault(json, "cmd", null);
+            String nonce = Utils.getJsonStringOrDefault(json, "nonce", null);
+            if("SET_ACTIVITY".equals(cmd))
+            {
+                JsonObject args = json.getAsJsonObject("args");
+                JsonElement activity = args == null ? null : args.get("activity");
+                long pid = args == null ? 0 : Utils.getJsonOrDefault(args, "pid", 0L, JsonElement::getAsLong);
+                update(this, priority, pid, activity, relay(cmd, nonce, activity == null ? JsonNull.INSTANCE : activity));
+                return;
+            }
+            if("SUBSCRIBE".equals(cmd) || "UNSUBSCRIBE".equals(cmd))
+            {
+                subscription(cmd, nonce, Event.of(Utils.getJsonStringOrDefault(json, "evt", null)));
+                return;
+            }
+
+            client.forward(json.deepCopy(), relay(cmd, nonce, JsonNull.INSTANCE));
+        }
+
+        /**
+         * Takes or releases this peer's reference to an event, holding at most one of each.
+         */
+        private void subscription(String cmd, String nonce, Event event)
+        {
+            boolean subscribe = "SUBSCRIBE".equals(cmd);
+            if(!event.isSubscribable())
+            {
+                error(cmd, nonce, "Cannot subscribe to " + event + " event!");
+                return;
+            }
+            JsonObject data = new JsonObject();
+            data.addProperty("evt", event.name());
+            boolean changed;
+            synchronized(events)
+            {
+                changed = subscribe ? events.add(event) : events.remove(event);
+            }
+            if(!changed)
+            {
+                if(subscribe)
+                    acknowledge(cmd, nonce, data);
+                else
+                    error(cmd, nonce, "Not subscribed to " + event + " event!");
+                return;
+            }
+            if(subscribe)
+                subscriptions.subscribePeer(event, relay(cmd, nonce, data));
+            else
+                subscriptions.unsubscribePeer(event, relay(cmd, nonce, data));
+        }
+
+        private boolean isSubscribed(Event event)
+        {
+            synchronized(events)
+            {
+                return events.contains(event);
+            }
+        }
+
+        /**
+         * Forgets every event this peer is subscribed to.
+         *
+         * @return The events, each still holding a reference to release.
+         */
+        private List<Event> release()
+        {
+            synchronized(events)
+            {
+                List<Event> released = new ArrayList<>(events);
+                events.clear();
+                return released;
+            }
+        }
+
+        /**
+         * A Callback passing Discord's response on to this peer under its own nonce,
+         * or acknowledging with the given data if no response was needed.
+         */
+        private Callback relay(String cmd, String nonce, JsonElement data)
+        {
+            return new Callback(response -> {
+                if(response == null)
+                {
+                    acknowledge(cmd, nonce, data);
+                    return;
+                }
+                JsonObject relayed = response.getJson().getAsJsonObject().deepCopy();
+                relayed.addProperty("nonce", nonce);
+                write(frame(OpCode.FRAME, relayed));
+            }, message -> error(cmd, nonce, message));
+        }
+
+        private void acknowledge(String cmd, String nonce, JsonElement data)
+        {
+            JsonObject response = new JsonObject();
+            response.addProperty("cmd", cmd);
+            response.add("data", data);
+            response.add("evt", JsonNull.INSTANCE);
+            response.addProperty("nonce", nonce);
+            write(frame(OpCode.FRAME, response));
+        }
+
+        private void error(String cmd, String nonce, String message)
+        {
+            JsonObject data = new JsonObject();
+            data.addProperty("message", message);
+            JsonObject error = new JsonObject();
+            error.addProperty("cmd", cmd);
+            error.add("data", data);
+            error.addProperty("evt", "ERROR");
+            error.addProperty("nonce", nonce);
+            write(frame(OpCode.FRAME, error));
+        }
+
+        private Packet read() throws IOException
+        {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            readFully(header);
+            header.flip();
+            int op = Integer.reverseBytes(header.getInt());
+            int length = Integer.reverseBytes(header.getInt());
+            if(op < 0 || op >= OpCode.values().length || length < 0)
+                throw new IOException("Malformed frame from broker peer");
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            readFully(payload);
+            return new Packet(OpCode.values()[op], JsonParser.parseString(new String(payload.array(), StandardCharsets.UTF_8)));
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException
+        {
+            while(buffer.hasRemaining())
+                if(channel.read(buffer) == -1)
+                    throw new IOException("Disconnected!");
+        }
+
+        private synchronized void write(byte[] bytes)
+        {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            try
+            {
+                while(buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            catch(IOException ex)
+            {
+                LOGGER.debug("Failed to write to broker peer: {}", ex.toString());
+                close();
+            }
+        }
+
+        private void close()
+        {
+            try
+            {
+                channel.close();
+            }
+            catch(IOException ex)
+            {
+                LOGGER.debug("Failed to close broker peer", ex);
+            }
+        }
+    }
+
+    /**
+     * A presence waiting to be sent to Discord, with the Callback for its response.
+     */
+    private static final class Outgoing
+    {
+        private final Contribution contribution;
+        private final Callback callback;
+
+        private Outgoing(Contribution contribution, Callback callback)
+        {
+            this.contribution = contribution;
+            this.callback = callback;
+        }
+    }
+
+    /**
+     * A participant's presence, ordered by priority and then by when it was set.
+     */
+    private static final class Contribution
+    {
+        private final int priority;
+        private final long sequence;
+        private final long pid;
+        private final JsonElement activity;
+
+        private Contribution(int priority, long sequence, long pid, JsonElement activity)
+        {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.pid = pid;
+            this.activity = activity;
+        }
+
+        private boolean sameAs(Contribution other)
+        {
+            return other != null && pid == other.pid && Objects.equals(activity, other.activity);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.entities.RichPresence;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Builds a single {@link RichPresence} out of {@link Layer Layers} owned by
+ * different parts of an application.<p>
+ *
+ * Each Layer sets some of the presence's {@link Field Fields}, and every Field
+ * takes its value from the Layer with the highest priority that sets it, so a
+ * game can own the state and details while a launcher owns the images, without
+ * either overwriting the other. Layers with the same priority rank in the order
+ * they were added.<p>
+ *
+ * When a Layer changes, only the Fields it touched are merged again, and the
+ * presence is only sent if the merged result actually differs from the last one.
+ * The sink is called outside the PresenceComposer's lock, by one thread at a time
+ * and always with the newest presence, so editing a Layer never waits for a send.
+ * <br>For example:
+ * <pre>{@code
+ * PresenceComposer composer = new PresenceComposer(client);
+ * PresenceComposer.Layer game = composer.addLayer("game", 10);
+ * PresenceComposer.Layer party = composer.addLayer("party", 20);
+ *
+ * game.edit().setState("In a match").setDetails("Ranked").commit();
+ * party.edit().setParty("ae488379", 1, 4).setJoinSecret("MTI4NzM0").commit();
+ * }</pre>
+ */
+public class PresenceComposer
+{
+    private static final Field[] FIELDS = Field.values();
+
+    private final Consumer<RichPresence> sink;
+    private final List<Layer> layers = new ArrayList<>();
+    private final Object[] merged = new Object[FIELDS.length];
+    private RichPresence presence = null;
+    private long version = 0;
+    private long sentVersion = 0;
+    private boolean sending = false;
+
+    /**
+     * Constructs a PresenceComposer that sends its presence through an {@link IPCClient}.
+     *
+     * @param client The IPCClient to send the presence with.
+     */
+    public PresenceComposer(IPCClient client)
+    {
+        this(client::sendRichPresence);
+    }
+
+    /**
+     * Constructs a PresenceComposer that hands its presence to a consumer.
+     *
+     * @param sink Receives the merged presence whenever it changes,
+     *             or {@code null} once no Layer sets any Field.
+     */
+    public PresenceComposer(Consumer<RichPresence> sink)
+    {
+        this.sink = sink;
+    }
+
+    /**
+     * Adds an empty {@link Layer}.
+     *
+     * @param name The name of the Layer, for logging and debugging.
+     * @param priority The priority of the Layer, higher priorities win.
+     *
+     * @return The new Layer.
+     */
+    public synchronized Layer addLayer(String name, int priority)
+    {
+        Layer layer = new Layer(name, priority);
+        int i = 0;
+        while(i < layers.size() && layers.get(i).priority >= priority)
+            i++;
+        layers.add(i, layer);
+        return layer;
+    }
+
+    /**
+     * @return The merged presence, or {@code null} if no Layer sets any Field.
+     */
+    public synchronized RichPresence getPresence()
+    {
+        return presence;
+    }
+
+    /**
+     * Sends the merged presence again, even though it did not change.
+     */
+    public void resend()
+    {
+        synchronized(this)
+        {
+            version++;
+        }
+        send();
+    }
+
+    private void apply(Layer layer, Map<Field, Object> changes)
+    {
+        boolean dirty = false;
+        for(Map.Entry<Field, Object> change : changes.entrySet())
+        {
+            Field field = change.getKey();
+            Object value = change.getValue();
+            if(Objects.equals(layer.values[field.ordinal()], value))
+                continue;
+            layer.values[field.ordinal()] = value;
+            dirty |= merge(field);
+        }
+        if(dirty)
+        {
+            presence = build();
+            version++;
+        }
+    }
+
+    private void remove(Layer layer)
+    {
+        if(!layers.remove(layer))
+            return;
+        boolean dirty = false;
+        for(Field field : FIELDS)
+            if(layer.values[field.ordinal()] != null)
+                dirty |= merge(field);
+        if(dirty)
+        {
+            presence = build();
+            version++;
+        }
+    }
+
+    private boolean merge(Field field)
+    {
+        Object value = null;
+        for(Layer layer : layers)
+        {
+            value = layer.values[field.ordinal()];
+            if(value != null)
+                break;
+        }
+        if(Objects.equals(merged[field.ordinal()], value))
+            return false;
+        merged[field.ordinal()] = value;
+        return true;
+    }
+
+    private RichPresence build()
+    {
+        boolean empty = true;
+        for(Object value : merged)
+            empty &= value == null;
+        if(empty)
+            return null;
+        return new RichPresence((String) get(Field.STATE), (String) get(Field.DETAILS),
+                (OffsetDateTime) get(Field.START_TIMESTAMP), (OffsetDateTime) get(Field.END_TIMESTAMP),
+                (String) get(Field.LARGE_IMAGE_KEY), (String) get(Field.LARGE_IMAGE_TEXT),
+                (String) get(Field.SMALL_IMAGE_KEY), (String) get(Field.SMALL_IMAGE_TEXT),
+                (String) get(Field.PARTY_ID), getInt(Field.PARTY_SIZE), getInt(Field.PARTY_MAX),
+                (String) get(Field.MATCH_SECRET), (String) get(Field.JOIN_SECRET), (String) get(Field.SPECTATE_SECRET),
+                Boolean.TRUE.equals(get(Field.INSTANCE)),
+                (String) get(Field.BUTTON_LABEL_1), (String) get(Field.BUTTON_URL_1),
+                (String) get(Field.BUTTON_LABEL_2), (String) get(Field.BUTTON_URL_2));
+    }
+
+    private Object get(Field field)
+    {
+        return merged[field.ordinal()];
+    }
+
+    private int getInt(Field field)
+    {
+        Object value = merged[field.ordinal()];
+        return value == null ? 0 : (Integer) value;
+    }
+
+    /**
+     * Hands the newest presence to the sink, unless it already has it. If another
+     * thread is already sending, that thread picks up the change once it is done.
+     */
+    private void send()
+    {
+        RichPresence next;
+        long sendingVersion;
+        synchronized(this)
+        {
+            if(sending || sentVersion == version)
+                return;
+            sending = true;
+            next = presence;
+            sendingVersion = version;
+        }
+        while(true)
+        {
+            try
+            {
+                sink.accept(next);
+            }
+            catch(RuntimeException ex)
+            {
+                // only counts as sent once the sink accepted it, so a failed send is retried on the next change
+                synchronized(this)
+                {
+                    sending = false;
+                }
+                throw ex;
+            }
+            synchronized(this)
+            {
+                sentVersion = sendingVersion;
+                if(sentVersion == version)
+                {
+                    sending = false;
+                    return;
+                }
+                next = presence;
+                sendingVersion = version;
+            }
+        }
+    }
+
+    /**
+     * The parts of a {@link RichPresence} a {@link Layer} can set.
+     */
+    public enum Field
+    {
+        STATE, DETAILS, START_TIMESTAMP, END_TIMESTAMP,
+        LARGE_IMAGE_KEY, LARGE_IMAGE_TEXT, SMALL_IMAGE_KEY, SMALL_IMAGE_TEXT,
+        PARTY_ID, PARTY_SIZE, PARTY_MAX, MATCH_SECRET, JOIN_SECRET, SPECTATE_SECRET,
+        INSTANCE, BUTTON_LABEL_1, BUTTON_URL_1, BUTTON_LABEL_2, BUTTON_URL_2
+    }
+
+    /**
+     * A named, prioritised set of {@link Field Fields} within a {@link PresenceComposer}.
+     */
+    public final class Layer
+    {
+        private final String name;
+        private final int priority;
+        private final Object[] values = new Object[FIELDS.length];
+
+        private Layer(String name, int priority)
+        {
+            this.name = name;
+            this.priority = priority;
+        }
+
+        /**
+         * @return The name of this Layer.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return The priority of this Layer.
+         */
+        public int getPriority()
+        {
+            return priority;
+        }
+
+        /**
+         * Starts a change to this Layer, which takes effect all at once on {@link Edit#commit()}.
+         *
+         * @return An Edit of this Layer.
+         */
+        public Edit edit()
+        {
+            return new Edit(this);
+        }
+
+        /**
+         * Unsets every Field of this Layer, leaving it in its {@link PresenceComposer}.
+         */
+        public void clear()
+        {
+            Edit edit = edit();
+            for(Field field : FIELDS)
+                edit.clear(field);
+            edit.commit();
+        }
+
+        /**
+         * Takes this Layer out of its {@link PresenceComposer}, letting
+         * lower priority Layers show through where it set Fields.
+         */
+        public void remove()
+        {
+            synchronized(PresenceComposer.this)
+            {
+                PresenceComposer.this.remove(this);
+            }
+            send();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Layer:" + name + "(" + priority + ")";
+        }
+    }
+
+    /**
+     * A pending change to a {@link Layer}.<p>
+     *
+     * Setting a Field to {@code null} unsets it, letting lower
+     * priority Layers show through.
+     */
+    public final class Edit
+    {
+        private final Layer layer;
+        private final Map<Field, Object> changes = new EnumMap<>(Field.class);
+
+        private Edit(Layer layer)
+        {
+            this.layer = layer;
+        }
+
+        /**
+         * @see RichPresence.Builder#setState(String)
+         */
+        public Edit setState(String state)
+        {
+            return set(Field.STATE, state);
+        }
+
+        /**
+         * @see RichPresence.Builder#setDetails(String)
+         */
+        public Edit setDetails(String details)
+        {
+            return set(Field.DETAILS, details);
+        }
+
+        /**
+         * @see RichPresence.Builder#setStartTimestamp(OffsetDateTime)
+         */
+        public Edit setStartTimestamp(OffsetDateTime startTimestamp)
+        {
+            return set(Field.START_TIMESTAMP, startTimestamp);
+        }
+
+        /**
+         * @see RichPresence.Builder#setEndTimestamp(OffsetDateTime)
+         */
+        public Edit setEndTimestamp(OffsetDateTime endTimestamp)
+        {
+            return set(Field.END_TIMESTAMP, endTimestamp);
+        }
+
+        /**
+         * @see RichPresence.Builder#setLargeImage(String, String)
+         */
+        public Edit setLargeImage(String largeImageKey, String largeImageText)
+        {
+            return set(Field.LARGE_IMAGE_KEY, largeImageKey).set(Field.LARGE_IMAGE_TEXT, largeImageText);
+        }
+
+        /**
+         * @see RichPresence.Builder#setSmallImage(String, String)
+         */
+        public Edit setSmallImage(String smallImageKey, String smallImageText)
+        {
+            return set(Field.SMALL_IMAGE_KEY, smallImageKey).set(Field.SMALL_IMAGE_TEXT, smallImageText);
+        }
+
+        /**
+         * @see RichPresence.Builder#setParty(String, int, int)
+         */
+        public Edit setParty(String partyId, int partySize, int partyMax)
+        {
+            return set(Field.PARTY_ID, partyId).set(Field.PARTY_SIZE, partySize).set(Field.PARTY_MAX, partyMax);
+        }
+
+        /**
+         * @see RichPresence.Builder#setMatchSecret(String)
+         */
+        public Edit setMatchSecret(String matchSecret)
+        {
+            return set(Field.MATCH_SECRET, matchSecret);
+        }
+
+        /**
+         * @see RichPresence.Builder#setJoinSecret(String)
+         */
+        public Edit setJoinSecret(String joinSecret)
+        {
+            return set(Field.JOIN_SECRET, joinSecret);
+        }
+
+        /**
+         * @see RichPresence.Builder#setSpectateSecret(String)
+         */
+        public Edit setSpectateSecret(String spectateSecret)
+        {
+            return set(Field.SPECTATE_SECRET, spectateSecret);
+        }
+
+        /**
+         * @see RichPresence.Builder#setInstance(boolean)
+         */
+        public Edit setInstance(boolean instance)
+        {
+            return set(Field.INSTANCE, instance);
+        }
+
+        /**
+         * @see RichPresence.Builder#setButton1(String, String)
+         */
+        public Edit setButton1(String label, String url)
+        {
+            return set(Field.BUTTON_LABEL_1, label).set(Field.BUTTON_URL_1, url);
+        }
+
+        /**
+         * @see RichPresence.Builder#setButton2(String, String)
+         */
+        public Edit setButton2(String label, String url)
+        {
+            return set(Field.BUTTON_LABEL_2, label).set(Field.BUTTON_URL_2, url);
+        }
+
+        /**
+         * Unsets a Field of this Layer.
+         *
+         * @param field The Field to unset.
+         *
+         * @return This Edit.
+         */
+        public Edit clear(Field field)
+        {
+            return set(field, null);
+        }
+
+        /**
+         * Applies this Edit to its {@link Layer}, sending the merged
+         * presence if it changed as a result.
+         */
+        public void commit()
+        {
+            synchronized(PresenceComposer.this)
+            {
+                if(layers.contains(layer))
+                    apply(layer, changes);
+            }
+            send();
+        }
+
+        private Edit set(Field field, Object value)
+        {
+            changes.put(field, value);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.IPCClient.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the last {@link com.jagrosh.discordipc.entities.RichPresence RichPresence}
+ * Discord acknowledged and the {@link Event Events} subscribed to in a small
+ * memory-mapped file, so a process that restarts after a crash can put them
+ * back straight away with {@link IPCClient#setPresenceJournal(PresenceJournal)}.<p>
+ *
+ * The presence is kept exactly as it was sent, so restoring it keeps its
+ * original start timestamp and the elapsed time Discord shows carries on
+ * rather than starting over.<br>
+ * Each change is a copy into the mapped region, which the operating system
+ * writes out even if the JVM dies. The file holds two slots of
+ * {@link #SLOT_SIZE} bytes written in turn, each checked by a CRC32, so a
+ * write torn by a crash leaves the previous state readable.<p>
+ *
+ * Each slot is stored as:
+ * <ul>
+ *     <li>{@code int} {@link #MAGIC} number</li>
+ *     <li>{@code short} format {@link #VERSION}</li>
+ *     <li>{@code long} sequence number, the higher of the two slots being current</li>
+ *     <li>{@code int} payload length</li>
+ *     <li>{@code int} CRC32 of the payload</li>
+ *     <li>the payload, a UTF-8 JSON object of the {@code activity} and its {@code subscriptions}</li>
+ * </ul>
+ */
+public final class PresenceJournal implements Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PresenceJournal.class);
+
+    /**
+     * The number identifying a journal slot, {@code "DRPJ"} in ASCII.
+     */
+    public static final int MAGIC = 0x4452504A;
+
+    /**
+     * The version of the journal format.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * The size of each of the two slots, which bounds the size of a journaled state.
+     */
+    public static final int SLOT_SIZE = 8 * 1024;
+
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + Long.BYTES + 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer region;
+    private long sequence = 0;
+    private JsonElement activity = JsonNull.INSTANCE;
+    private Set<Event> subscriptions = EnumSet.noneOf(Event.class);
+
+    /**
+     * Opens the journal at the given path, reading the state it holds,
+     * or creates an empty one if there is no file there.
+     *
+     * @param path Where to keep the journal.
+     *
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public PresenceJournal(Path path) throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        region = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * SLOT_SIZE);
+        load();
+    }
+
+    /**
+     * Gets the start timestamp of the journaled presence, so a presence
+     * rebuilt after a restart can keep counting from it.
+     *
+     * @return The start timestamp, or {@code null} if the journaled presence
+     *         has none or there is no journaled presence.
+     */
+    public synchronized OffsetDateTime getStartTimestamp()
+    {
+        if(!activity.isJsonObject())
+            return null;
+        JsonElement timestamps = activity.getAsJsonObject().get("timestamps");
+        if(timestamps == null || !timestamps.isJsonObject() || !timestamps.getAsJsonObject().has("start"))
+            return null;
+        long start = timestamps.getAsJsonObject().get("start").getAsLong();
+        return OffsetDateTime.ofInstant(Instant.ofEpochSecond(start), ZoneOffset.UTC);
+    }
+
+    /**
+     * @return An unmodifiable set of the journaled {@link Event Events}.
+     */
+    public synchronized Set<Event> getSubscriptions()
+    {
+        return Collections.unmodifiableSet(EnumSet.copyOf(subscriptions));
+    }
+
+    /**
+     * @return The journaled activity, or {@link JsonNull} if there is none.
+     */
+    synchronized JsonElement getActivity()
+    {
+        return activity;
+    }
+
+    /**
+     * Journals an activity Discord acknowledged.
+     *
+     * @param activity The activity, or {@code null} if it was cleared.
+     */
+    synchronized void recordActivity(JsonElement activity)
+    {
+        this.activity = activity == null ? JsonNull.INSTANCE : activity;
+        write();
+    }
+
+    /**
+     * Journals the {@link Event Events} subscribed to, if they changed.
+     *
+     * @param subscriptions The Events.
+     */
+    synchronized void recordSubscriptions(Set<Event> subscriptions)
+    {
+        if(this.subscriptions.equals(subscriptions))
+            return;
+        this.subscriptions = subscriptions.isEmpty() ? EnumSet.noneOf(Event.class) : EnumSet.copyOf(subscriptions);
+        write();
+    }
+
+    /**
+     * Flushes the journal to disk and closes it.
+     *
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if(!channel.isOpen())
+            return;
+        region.force();
+        channel.close();
+    }
+
+    private void load()
+    {
+        long best = -1;
+        for(int slot = 0; slot < 2; slot++)
+        {
+            int base = slot * SLOT_SIZE;
+            if(region.getInt(base) != MAGIC || region.getShort(base + 4) != VERSION)
+                continue;
+            long seq = region.getLong(base + 6);
+            int length = region.getInt(base + 14);
+            if(seq <= best || length < 0 || length > SLOT_SIZE - HEADER_SIZE)
+                continue;
+            byte[] payload = new byte[length];
+            region.get(base + HEADER_SIZE, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if((int) crc.getValue() != region.getInt(base + 18))
+            {
+                LOGGER.debug("Ignoring torn presence journal slot {}", slot);
+                continue;
+            }
+            try
+            {
+                JsonObject state = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject();
+                Set<Event> events = EnumSet.noneOf(Event.class);
+                for(JsonElement name : state.getAsJsonArray("subscriptions"))
+                    events.add(Event.valueOf(name.getAsString()));
+                activity = state.get("activity");
+                subscriptions = events;
+                best = seq;
+            }
+            catch(RuntimeException ex)
+            {
+                LOGGER.warn("Ignoring unreadable presence journal slot {}", slot, ex);
+            }
+        }
+        sequence = Math.max(0, best);
+    }
+
+    private void write()
+    {
+        if(!channel.isOpen())
+            return;
+        JsonObject state = new JsonObject();
+        state.add("activity", activity);
+        JsonArray events = new JsonArray();
+        for(Event event : subscriptions)
+            events.add(event.name());
+        state.add("subscriptions", events);
+        byte[] payload = state.toString().getBytes(StandardCharsets.UTF_8);
+        if(payload.length > SLOT_SIZE - HEADER_SIZE)
+        {
+            LOGGER.warn("Presence journal state of {} bytes does not fit, not journaled", payload.length);
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        // write over the older slot, and stamp the magic last so a torn write is never taken as current
+        sequence++;
+        int base = (int) (sequence & 1) * SLOT_SIZE;
+        region.putInt(base, 0);
+        region.put(base + HEADER_SIZE, payload);
+        region.putShort(base + 4, VERSION);
+        region.putLong(base + 6, sequence);
+        region.putInt(base + 14, payload.length);
+        region.putInt(base + 18, (int) crc.getValue());
+        region.putInt(base, MAGIC);
+    }
+}
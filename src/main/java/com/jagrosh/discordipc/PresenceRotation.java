@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.PresenceSchedule.Step;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link PresenceSchedule} for one {@link IPCClient}.<p>
+ *
+ * Only the waits between steps take up the {@link IPCScheduler}; each step is
+ * shown from the common pool, since sending may block on the pipe or reconnect
+ * an idle client. The next step is timed from when the previous one was due
+ * rather than when it was shown, so a long schedule doesn't drift.
+ */
+final class PresenceRotation
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PresenceRotation.class);
+
+    private final IPCClient client;
+    private final PresenceSchedule schedule;
+    private ScheduledFuture<?> timer = null;
+    private boolean cancelled = false;
+
+    PresenceRotation(IPCClient client, PresenceSchedule schedule)
+    {
+        this.client = client;
+        this.schedule = schedule;
+    }
+
+    /**
+     * Shows the first step straight away.
+     */
+    void start()
+    {
+        long now = System.nanoTime();
+        ForkJoinPool.commonPool().execute(() -> show(0, now));
+    }
+
+    /**
+     * Stops the schedule, leaving the current step shown.
+     */
+    synchronized void cancel()
+    {
+        cancelled = true;
+        if(timer != null)
+            timer.cancel(false);
+        timer = null;
+    }
+
+    private void show(int index, long startNanos)
+    {
+        synchronized(this)
+        {
+            if(cancelled)
+                return;
+        }
+        Step step = schedule.getStep(index);
+        try
+        {
+            client.showScheduled(this, step.activity);
+        }
+        catch(IllegalStateException ex)
+        {
+            // not connected right now, but the schedule carries on in case it reconnects
+            LOGGER.debug("Skipped a scheduled presence: {}", ex.getMessage());
+        }
+        catch(RuntimeException ex)
+        {
+            // a failed step must not end the schedule, which nothing else would restart
+            LOGGER.warn("Failed to show a scheduled presence", ex);
+        }
+
+        int next = schedule.next(index);
+        long due = step.dueNanos(startNanos);
+        if(next < 0 || due == Long.MAX_VALUE)
+            return;
+        synchronized(this)
+        {
+            if(cancelled)
+                return;
+            timer = IPCScheduler.get().schedule(
+                    () -> ForkJoinPool.commonPool().execute(() -> show(next, due)),
+                    due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+}
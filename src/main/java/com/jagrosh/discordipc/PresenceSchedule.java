@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.entities.RichPresence;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sequence of {@link RichPresence RichPresences} shown one after another,
+ * run by {@link IPCClient#setPresenceSchedule(PresenceSchedule)}.<p>
+ *
+ * Each step is shown either for a fixed time, until its own end timestamp
+ * counts down, or for good if it is the last step. Every presence is turned
+ * into its JSON activity once when the schedule is built, so a transition only
+ * has to frame it with a fresh nonce, and a transition that would show exactly
+ * what Discord already shows sends nothing at all. Schedules are immutable, so one can be run by any number
+ * of clients.<br>For example:
+ * <pre>{@code
+ * client.setPresenceSchedule(PresenceSchedule.rotate(30, TimeUnit.SECONDS, tip1, tip2, tip3));
+ *
+ * client.setPresenceSchedule(PresenceSchedule.builder()
+ *         .thenUntilEnd(countdown)
+ *         .then(started)
+ *         .build());
+ * }</pre>
+ */
+public final class PresenceSchedule
+{
+    private final Step[] steps;
+    private final boolean loop;
+
+    private PresenceSchedule(Step[] steps, boolean loop)
+    {
+        this.steps = steps;
+        this.loop = loop;
+    }
+
+    /**
+     * Builds a schedule cycling through presences forever.
+     *
+     * @param interval How long each presence is shown.
+     * @param unit The {@link TimeUnit} of the interval.
+     * @param presences The presences to cycle through, in order.
+     *
+     * @return The schedule.
+     */
+    public static PresenceSchedule rotate(long interval, TimeUnit unit, RichPresence... presences)
+    {
+        Builder builder = builder();
+        for(RichPresence presence : presences)
+            builder.then(presence, interval, unit);
+        return builder.loop().build();
+    }
+
+    /**
+     * @return A {@link Builder} for a new schedule.
+     */
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    int size()
+    {
+        return steps.length;
+    }
+
+    Step getStep(int index)
+    {
+        return steps[index];
+    }
+
+    /**
+     * Finds the step that follows another.
+     *
+     * @param index The index of the current step.
+     *
+     * @return The index of the next step, or {@code -1} if the schedule is over.
+     */
+    int next(int index)
+    {
+        if(index + 1 < steps.length)
+            return index + 1;
+        return loop ? 0 : -1;
+    }
+
+    /**
+     * A presence in a schedule, already turned into its JSON activity, and how long it is shown.
+     */
+    static final class Step
+    {
+        final JsonObject activity;
+        final long durationNanos;
+        final OffsetDateTime until;
+
+        private Step(JsonObject activity, long durationNanos, OffsetDateTime until)
+        {
+            this.activity = activity;
+            this.durationNanos = durationNanos;
+            this.until = until;
+        }
+
+        /**
+         * @param startNanos When this step was shown, by {@link System#nanoTime()}.
+         *
+         * @return When the next step is due, by {@link System#nanoTime()},
+         *         or {@code Long.MAX_VALUE} if this step is shown for good.
+         */
+        long dueNanos(long startNanos)
+        {
+            if(until != null)
+            {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(
+                        until.toInstant().toEpochMilli() - System.currentTimeMillis());
+                return System.nanoTime() + Math.max(0, remaining);
+            }
+            return durationNanos < 0 ? Long.MAX_VALUE : startNanos + durationNanos;
+        }
+    }
+
+    /**
+     * A chain builder for a {@link PresenceSchedule}.
+     */
+    public static final class Builder
+    {
+        private final List<Step> steps = new ArrayList<>();
+        private boolean loop = false;
+        private boolean open = false;
+
+        private Builder() {}
+
+        /**
+         * Adds a presence shown for a fixed time.
+         *
+         * @param presence The presence to show.
+         * @param duration How long to show it.
+         * @param unit The {@link TimeUnit} of the duration.
+         *
+         * @return This Builder.
+         */
+        public Builder then(RichPresence presence, long duration, TimeUnit unit)
+        {
+            if(duration <= 0)
+                throw new IllegalArgumentException("Duration must be positive");
+            return add(presence, new Step(presence.toJson(), unit.toNanos(duration), null));
+        }
+
+        /**
+         * Adds a presence shown until its end timestamp, such as a countdown.
+         *
+         * @param presence The presence to show, which must have an end timestamp.
+         *
+         * @return This Builder.
+         */
+        public Builder thenUntilEnd(RichPresence presence)
+        {
+            if(presence.getEndTimestamp() == null)
+                throw new IllegalArgumentException("RichPresence has no end timestamp");
+            return add(presence, new Step(presence.toJson(), 0, presence.getEndTimestamp()));
+        }
+
+        /**
+         * Adds a final presence, shown for good.
+         *
+         * @param presence The presence to show.
+         *
+         * @return This Builder.
+         */
+        public Builder then(RichPresence presence)
+        {
+            Builder builder = add(presence, new Step(presence.toJson(), -1, null));
+            open = true;
+            return builder;
+        }
+
+        /**
+         * Makes the schedule start over after its last step.
+         *
+         * @return This Builder.
+         */
+        public Builder loop()
+        {
+            loop = true;
+            return this;
+        }
+
+        /**
+         * Builds the {@link PresenceSchedule} from the current state of this builder.
+         *
+         * @return The PresenceSchedule built.
+         */
+        public PresenceSchedule build()
+        {
+            if(steps.isEmpty())
+                throw new IllegalStateException("A PresenceSchedule needs at least one step");
+            if(loop && open)
+                throw new IllegalStateException("A looping PresenceSchedule cannot end with a presence shown for good");
+            return new PresenceSchedule(steps.toArray(new Step[0]), loop);
+        }
+
+        private Builder add(RichPresence presence, Step step)
+        {
+            if(!presence.isValid())
+                throw new IllegalArgumentException("Invalid RichPresence: " + presence.getViolations());
+            if(open)
+                throw new IllegalStateException("Nothing can follow a presence shown for good");
+            steps.add(step);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.exceptions.CommandFailedException;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches Discord's responses to read-only commands such as {@code GET_GUILDS}.<p>
+ *
+ * Responses are kept until they expire or the least recently used ones are
+ * evicted to make room. Identical requests made while one is still awaiting its
+ * response share that response rather than making another round trip.<p>
+ *
+ * Nothing tells the cache when a response goes stale: the events that would,
+ * such as {@code VOICE_SETTINGS_UPDATE}, need RPC scopes an IPC client is not
+ * granted, so they are never subscribed to. A response is therefore only
+ * dropped when it expires, when it is cleared explicitly, or when connecting
+ * to Discord again.
+ */
+final class ResponseCache
+{
+    static final long DEFAULT_TTL_NANOS = TimeUnit.SECONDS.toNanos(30);
+    static final int DEFAULT_MAX_ENTRIES = 128;
+
+    private final Sender sender;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+        {
+            return size() > maxEntries;
+        }
+    };
+    private final Map<String, CompletableFuture<JsonElement>> inflight = new HashMap<>();
+    private long ttlNanos = DEFAULT_TTL_NANOS;
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+
+    ResponseCache(Sender sender)
+    {
+        this(sender, System::nanoTime);
+    }
+
+    /**
+     * @param sender Sends the commands whose responses are cached.
+     * @param clock The time in nanoseconds, as given by {@link System#nanoTime()}.
+     */
+    ResponseCache(Sender sender, LongSupplier clock)
+    {
+        this.sender = sender;
+        this.clock = clock;
+    }
+
+    synchronized void setLimits(long ttlNanos, int maxEntries)
+    {
+        this.ttlNanos = ttlNanos;
+        this.maxEntries = maxEntries;
+        Iterator<String> eldest = entries.keySet().iterator();
+        while(entries.size() > (ttlNanos > 0 ? maxEntries : 0))
+        {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Gets the response to a command, from the cache if possible.
+     *
+     * @param cmd The command.
+     * @param args The arguments of the command, which must not be changed afterwards.
+     *
+     * @return A future completed with the {@code data} of the response, which
+     *         the caller may change freely.
+     */
+    CompletableFuture<JsonElement> get(String cmd, JsonObject args)
+    {
+        String key = cmd + ' ' + args;
+        CompletableFuture<JsonElement> future;
+        synchronized(this)
+        {
+            Entry entry = entries.get(key);
+            if(entry != null && clock.getAsLong() - entry.expiresNanos < 0)
+                return CompletableFuture.completedFuture(entry.data.deepCopy());
+            if(entry != null)
+                entries.remove(key);
+            future = inflight.get(key);
+            if(future != null)
+                return future.thenApply(JsonElement::deepCopy);
+            future = new CompletableFuture<>();
+            inflight.put(key, future);
+        }
+
+        CompletableFuture<JsonElement> response = future;
+        try
+        {
+            sender.send(cmd, args, new Callback(
+                    p -> {
+                        JsonObject json = p.getJson().getAsJsonObject();
+                        JsonElement data = json.has("data") ? json.get("data") : JsonNull.INSTANCE;
+                        synchronized(this)
+                        {
+                            // not kept if the cache was cleared while awaited
+                            if(inflight.remove(key, response) && ttlNanos > 0 && maxEntries > 0)
+                                entries.put(key, new Entry(data, clock.getAsLong() + ttlNanos));
+                        }
+                        response.complete(data);
+                    },
+                    message -> {
+                        synchronized(this)
+                        {
+                            inflight.remove(key, response);
+                        }
+                        response.completeExceptionally(new CommandFailedException(cmd, message));
+                    }));
+        }
+        catch(RuntimeException ex)
+        {
+            synchronized(this)
+            {
+                inflight.remove(key, response);
+            }
+            throw ex;
+        }
+        return response.thenApply(JsonElement::deepCopy);
+    }
+
+    /**
+     * Drops every cached response, as well as responses still awaited.
+     */
+    synchronized void clear()
+    {
+        entries.clear();
+        inflight.clear();
+    }
+
+    private static final class Entry
+    {
+        private final JsonElement data;
+        private final long expiresNanos;
+
+        private Entry(JsonElement data, long expiresNanos)
+        {
+            this.data = data;
+            this.expiresNanos = expiresNanos;
+        }
+    }
+
+    @FunctionalInterface
+    interface Sender
+    {
+        void send(String cmd, JsonObject args, Callback callback);
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.IPCClient.Event;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Keeps track of the {@link Event Events} an {@link IPCClient} is subscribed to.<p>
+ *
+ * Each Event is reference-counted: only the first reference sends a
+ * {@code SUBSCRIBE} and only releasing the last one sends an
+ * {@code UNSUBSCRIBE}. References taken while the first {@code SUBSCRIBE}
+ * is still awaiting its response share that response instead of making
+ * another round trip.<p>
+ *
+ * A {@code SUBSCRIBE} Discord rejects keeps its references, so their holders
+ * can still release them, but no longer counts as active. It is retried when
+ * another reference is taken and whenever the subscriptions are restored.<br>
+ * Commands are queued in order while the state is locked and written once it
+ * is released, so a slow pipe never holds up acknowledgements.<p>
+ *
+ * References taken on behalf of {@link PresenceBroker} peers share the same
+ * counts, but are kept apart from the IPCClient's own so that they never
+ * show up as its subscriptions or reach its listeners.
+ */
+final class SubscriptionManager
+{
+    private final Sender sender;
+    private final Runnable changed;
+    private final Map<Event, State> states = new EnumMap<>(Event.class);
+    private final Queue<Command> outbox = new ArrayDeque<>();
+    private final Object sending = new Object();
+
+    /**
+     * @param sender Sends the subscription commands.
+     * @param changed Run, without any lock held, whenever the {@link #getActive() active}
+     *                Events may have changed: once Discord answers a {@code SUBSCRIBE},
+     *                and when a last reference is released.
+     */
+    SubscriptionManager(Sender sender, Runnable changed)
+    {
+        this.sender = sender;
+        this.changed = changed;
+    }
+
+    /**
+     * Takes a reference to an {@link Event}, subscribing to it if it is the first.
+     *
+     * @param event The Event to subscribe to.
+     * @param callback Completed with the response to the {@code SUBSCRIBE}, or {@code null}.
+     */
+    void subscribe(Event event, Callback callback)
+    {
+        subscribeAll(Collections.singletonMap(event, callback), false);
+    }
+
+    /**
+     * Takes a reference to an {@link Event} for a {@link PresenceBroker}
+     * peer, subscribing to it if it is the first.
+     *
+     * @param event The Event to subscribe to.
+     * @param callback Completed with the response to the {@code SUBSCRIBE}, or {@code null}.
+     */
+    void subscribePeer(Event event, Callback callback)
+    {
+        subscribeAll(Collections.singletonMap(event, callback), true);
+    }
+
+    /**
+     * Takes a reference to each of several {@link Event Events}, sending
+     * the {@code SUBSCRIBE} commands needed for all of them at once.
+     *
+     * @param events The Events to subscribe to, each with the Callback to
+     *               complete with its response, or {@code null}.
+     */
+    void subscribeAll(Map<Event, Callback> events)
+    {
+        subscribeAll(events, false);
+    }
+
+    private void subscribeAll(Map<Event, Callback> events, boolean peer)
+    {
+        for(Event event : events.keySet())
+            if(!event.isSubscribable())
+                throw new IllegalStateException("Cannot subscribe to " + event + " event!");
+
+        List<Runnable> acknowledged = new ArrayList<>();
+        synchronized(states)
+        {
+            List<Event> toSend = new ArrayList<>();
+            events.forEach((event, callback) -> {
+                State state = states.computeIfAbsent(event, e -> new State());
+                state.refs++;
+                if(!peer)
+                    state.owned++;
+                if(state.refs == 1 || state.failed)
+                {
+                    state.ack = null;
+                    state.failed = false;
+                    state.waiting.add(callback);
+                    toSend.add(event);
+                }
+                else if(state.ack == null)
+                    state.waiting.add(callback);
+                else if(callback != null)
+                {
+                    Packet ack = state.ack;
+                    acknowledged.add(() -> callback.succeed(ack));
+                }
+            });
+            enqueue("SUBSCRIBE", toSend);
+        }
+        flush();
+        acknowledged.forEach(Runnable::run);
+    }
+
+    /**
+     * Releases a reference to an {@link Event}, unsubscribing from it if it was the last.
+     *
+     * @param event The Event to release.
+     * @param callback Completed with the response to the {@code UNSUBSCRIBE}, or with
+     *                 a {@code null} Packet straight away if other references remain
+     *                 or Discord rejected the subscription. May be {@code null}.
+     */
+    void unsubscribe(Event event, Callback callback)
+    {
+        unsubscribe(event, callback, false);
+    }
+
+    /**
+     * Releases a reference to an {@link Event} taken with
+     * {@link #subscribePeer(Event, Callback)}, unsubscribing from it if it was the last.
+     *
+     * @param event The Event to release.
+     * @param callback As for {@link #unsubscribe(Event, Callback)}.
+     */
+    void unsubscribePeer(Event event, Callback callback)
+    {
+        unsubscribe(event, callback, true);
+    }
+
+    private void unsubscribe(Event event, Callback callback, boolean peer)
+    {
+        synchronized(states)
+        {
+            State state = states.get(event);
+            if(state == null || (peer ? state.refs - state.owned : state.owned) == 0)
+                throw new IllegalStateException("Not subscribed to " + event + " event!");
+            state.refs--;
+            if(!peer)
+                state.owned--;
+            // Discord never took a rejected SUBSCRIBE, so there is nothing to undo
+            if(state.refs == 0 && !state.failed)
+            {
+                state.ack = null;
+                outbox.add(new Command("UNSUBSCRIBE", Collections.singletonList(event), Collections.singletonList(callback)));
+                callback = null;
+            }
+            if(state.refs == 0)
+                state.failed = false;
+        }
+        flush();
+        changed.run();
+        if(callback != null)
+            callback.succeed(null);
+    }
+
+    /**
+     * Sends a {@code SUBSCRIBE} for every {@link Event} that still has
+     * references, as Discord forgets them when the connection ends.
+     * Subscriptions Discord rejected before are retried.
+     */
+    void restore()
+    {
+        synchronized(states)
+        {
+            List<Event> toSend = new ArrayList<>();
+            states.forEach((event, state) -> {
+                if(state.refs > 0)
+                {
+                    state.ack = null;
+                    state.failed = false;
+                    toSend.add(event);
+                }
+            });
+            enqueue("SUBSCRIBE", toSend);
+        }
+        flush();
+    }
+
+    /**
+     * @param event The Event.
+     *
+     * @return Whether the IPCClient itself, rather than only
+     *         {@link PresenceBroker} peers, holds a reference to the Event.
+     */
+    boolean isOwned(Event event)
+    {
+        synchronized(states)
+        {
+            State state = states.get(event);
+            return state != null && state.owned > 0;
+        }
+    }
+
+    /**
+     * @return The {@link Event Events} the IPCClient itself holds at least
+     *         one reference to, leaving out those Discord rejected.
+     */
+    Set<Event> getActive()
+    {
+        EnumSet<Event> active = EnumSet.noneOf(Event.class);
+        synchronized(states)
+        {
+            states.forEach((event, state) -> {
+                if(state.owned > 0 && !state.failed)
+                    active.add(event);
+            });
+        }
+        return Collections.unmodifiableSet(active);
+    }
+
+    /**
+     * Queues a command for each of the events. Must hold the {@code states} lock.
+     */
+    private void enqueue(String cmd, List<Event> events)
+    {
+        if(events.isEmpty())
+            return;
+        List<Callback> callbacks = new ArrayList<>(events.size());
+        for(Event event : events)
+            callbacks.add(new Callback(p -> acknowledged(event, p), m -> failed(event, m)));
+        outbox.add(new Command(cmd, new ArrayList<>(events), callbacks));
+    }
+
+    /**
+     * Writes every queued command, in the order they were queued. Must not hold the {@code states} lock.
+     */
+    private void flush()
+    {
+        synchronized(sending)
+        {
+            while(true)
+            {
+                Command next;
+                synchronized(states)
+                {
+                    next = outbox.poll();
+                }
+                if(next == null)
+                    return;
+                sender.send(next.cmd, next.events, next.callbacks);
+            }
+        }
+    }
+
+    private void acknowledged(Event event, Packet packet)
+    {
+        List<Callback> waiting;
+        synchronized(states)
+        {
+            State state = states.get(event);
+            if(state.refs > 0)
+                state.ack = packet;
+            waiting = state.drain();
+        }
+        changed.run();
+        for(Callback callback : waiting)
+            callback.succeed(packet);
+    }
+
+    private void failed(Event event, String message)
+    {
+        List<Callback> waiting;
+        synchronized(states)
+        {
+            State state = states.get(event);
+            state.ack = null;
+            state.failed = state.refs > 0;
+            waiting = state.drain();
+        }
+        changed.run();
+        for(Callback callback : waiting)
+            callback.fail(message);
+    }
+
+    /**
+     * Sends a subscription command for each of several {@link Event Events}
+     * to Discord in a single write.
+     */
+    interface Sender
+    {
+        void send(String cmd, List<Event> events, List<Callback> callbacks);
+    }
+
+    private static final class Command
+    {
+        private final String cmd;
+        private final List<Event> events;
+        private final List<Callback> callbacks;
+
+        private Command(String cmd, List<Event> events, List<Callback> callbacks)
+        {
+            this.cmd = cmd;
+            this.events = events;
+            this.callbacks = callbacks;
+        }
+    }
+
+    private static final class State
+    {
+        private int refs = 0;
+        private int owned = 0;
+        private boolean failed = false;
+        private Packet ack = null;
+        private List<Callback> waiting = new ArrayList<>();
+
+        private List<Callback> drain()
+        {
+            List<Callback> drained = waiting;
+            waiting = new ArrayList<>();
+            drained.removeIf(c -> c == null);
+            return drained;
+        }
+    }
+}
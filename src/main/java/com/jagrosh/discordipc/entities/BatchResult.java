@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of a batch of commands sent to Discord together,
+ * such as {@link com.jagrosh.discordipc.IPCClient#subscribeAll(java.util.EnumSet)
+ * IPCClient#subscribeAll(EnumSet)}.<p>
+ *
+ * Every key of the batch appears in exactly one of
+ * {@link #getSucceeded()} or {@link #getFailed()}.
+ *
+ * @param <K> The type identifying each command in the batch.
+ */
+public class BatchResult<K>
+{
+    private final Map<K, Packet> succeeded;
+    private final Map<K, String> failed;
+
+    /**
+     * Constructs a new BatchResult.<br>
+     * Only implemented internally.
+     *
+     * @param succeeded The response to each successful command.
+     * @param failed The error message of each failed command.
+     */
+    public BatchResult(Map<K, Packet> succeeded, Map<K, String> failed)
+    {
+        this.succeeded = Collections.unmodifiableMap(succeeded);
+        this.failed = Collections.unmodifiableMap(failed);
+    }
+
+    /**
+     * Gets the commands that succeeded, along with Discord's response to each.<br>
+     * A response may be {@code null} if the command never needed to reach Discord.
+     *
+     * @return An unmodifiable map of the successful commands.
+     */
+    public Map<K, Packet> getSucceeded()
+    {
+        return succeeded;
+    }
+
+    /**
+     * Gets the commands that failed, along with the error message of each.
+     *
+     * @return An unmodifiable map of the failed commands.
+     */
+    public Map<K, String> getFailed()
+    {
+        return failed;
+    }
+
+    /**
+     * Gets whether every command in the batch succeeded.
+     *
+     * @return {@code true} if no command failed.
+     */
+    public boolean isSuccess()
+    {
+        return failed.isEmpty();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BatchResult(succeeded=" + succeeded.keySet() + ", failed=" + failed + ')';
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.Utils;
+
+/**
+ * What Discord told an {@link com.jagrosh.discordipc.IPCClient IPCClient} about
+ * itself when the connection was made: who is logged in and how the client is
+ * configured.<p>
+ *
+ * It is parsed once from the {@code READY} Discord answers the handshake with,
+ * and a new one replaces it every time the IPCClient connects again.
+ *
+ * @see com.jagrosh.discordipc.IPCClient#getConnectionInfo()
+ */
+public class ConnectionInfo
+{
+    private final int version;
+    private final User user;
+    private final String cdnHost;
+    private final String apiEndpoint;
+    private final String environment;
+    private final DiscordBuild build;
+
+    /**
+     * Constructs a new ConnectionInfo.<br>
+     * Only implemented internally.
+     *
+     * @param version The RPC version Discord speaks.
+     * @param user The user logged in, or {@code null} if unknown.
+     * @param cdnHost The host Discord serves images from, or {@code null} if unknown.
+     * @param apiEndpoint The API endpoint of the Discord client.
+     * @param environment The environment of the Discord client, or {@code null} if unknown.
+     * @param build The build of the Discord client.
+     */
+    public ConnectionInfo(int version, User user, String cdnHost, String apiEndpoint, String environment, DiscordBuild build)
+    {
+        this.version = version;
+        this.user = user;
+        this.cdnHost = cdnHost;
+        this.apiEndpoint = apiEndpoint;
+        this.environment = environment;
+        this.build = build;
+    }
+
+    /**
+     * Parses the data of a {@code READY} event.<br>
+     * Only implemented internally.
+     *
+     * @param data The {@code data} of the READY.
+     *
+     * @return The ConnectionInfo the READY describes.
+     */
+    public static ConnectionInfo fromReady(JsonObject data)
+    {
+        JsonObject config = data.getAsJsonObject("config");
+        String apiEndpoint = config.get("api_endpoint").getAsString();
+
+        User user = null;
+        JsonElement u = data.get("user");
+        if(u != null && u.isJsonObject())
+        {
+            JsonObject json = u.getAsJsonObject();
+            user = new User(
+                json.get("username").getAsString(),
+                Utils.getJsonStringOrDefault(json, "discriminator", "0"),
+                Long.parseLong(json.get("id").getAsString()),
+                Utils.getJsonStringOrDefault(json, "avatar", null)
+            );
+        }
+
+        return new ConnectionInfo(
+            Utils.getJsonOrDefault(data, "v", 1, JsonElement::getAsInt),
+            user,
+            Utils.getJsonStringOrDefault(config, "cdn_host", null),
+            apiEndpoint,
+            Utils.getJsonStringOrDefault(config, "environment", null),
+            DiscordBuild.from(apiEndpoint)
+        );
+    }
+
+    /**
+     * Gets the RPC version Discord speaks.
+     *
+     * @return The RPC version.
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Gets the user logged in to Discord.
+     *
+     * @return The user, or {@code null} if Discord didn't say.
+     */
+    public User getUser()
+    {
+        return user;
+    }
+
+    /**
+     * Gets the host Discord serves images from, such as {@code cdn.discordapp.com}.
+     *
+     * @return The CDN host, or {@code null} if Discord didn't say.
+     */
+    public String getCdnHost()
+    {
+        return cdnHost;
+    }
+
+    /**
+     * Gets the API endpoint of the Discord client, such as {@code //discord.com/api}.
+     *
+     * @return The API endpoint.
+     */
+    public String getApiEndpoint()
+    {
+        return apiEndpoint;
+    }
+
+    /**
+     * Gets the environment of the Discord client, such as {@code production}.
+     *
+     * @return The environment, or {@code null} if Discord didn't say.
+     */
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    /**
+     * Gets the build of the Discord client, as identified by its API endpoint.
+     *
+     * @return The {@link DiscordBuild}.
+     */
+    public DiscordBuild getBuild()
+    {
+        return build;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConnectionInfo(v=" + version + ", build=" + build + ", user="
+                + (user == null ? null : user.getName()) + ", cdn=" + cdnHost + ", env=" + environment + ')';
+    }
+}
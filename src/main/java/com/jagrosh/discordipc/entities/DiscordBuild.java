@@ -57,6 +57,16 @@ public enum DiscordBuild
         this(null);
     }
 
+    /**
+     * Gets the API endpoint this build reports in its {@code READY}.
+     *
+     * @return The endpoint, or {@code null} for {@link #ANY}.
+     */
+    public String getEndpoint()
+    {
+        return endpoint;
+    }
+
     /**
      * Gets a {@link DiscordBuild} matching the specified endpoint.<p>
      *
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities;
+
+/**
+ * A way in which a {@link RichPresence} breaks the limits Discord enforces,
+ * and would have it rejected.
+ *
+ * @see RichPresence#getViolations()
+ */
+public class PresenceViolation
+{
+    private final Code code;
+    private final String field;
+    private final String message;
+
+    /**
+     * Constructs a new PresenceViolation.<br>
+     * Only implemented internally.
+     *
+     * @param code What kind of violation this is.
+     * @param field The activity field at fault, as named in the JSON payload.
+     * @param message A description of the violation.
+     */
+    public PresenceViolation(Code code, String field, String message)
+    {
+        this.code = code;
+        this.field = field;
+        this.message = message;
+    }
+
+    /**
+     * @return What kind of violation this is.
+     */
+    public Code getCode()
+    {
+        return code;
+    }
+
+    /**
+     * @return The activity field at fault, as named in the JSON payload, such as {@code party.size}.
+     */
+    public String getField()
+    {
+        return field;
+    }
+
+    /**
+     * @return A description of the violation.
+     */
+    public String getMessage()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        return code + "(" + field + "): " + message;
+    }
+
+    /**
+     * The kinds of {@link PresenceViolation}.
+     */
+    public enum Code
+    {
+        /**
+         * A text field is shorter than Discord allows.
+         */
+        TOO_SHORT,
+        /**
+         * A text field is longer than Discord allows.
+         */
+        TOO_LONG,
+        /**
+         * A party's size is not positive, or is larger than its maximum.
+         */
+        INVALID_PARTY_SIZE,
+        /**
+         * The end timestamp is before the start timestamp.
+         */
+        INVALID_TIMESTAMPS,
+        /**
+         * A button's URL is not an http or https URL.
+         */
+        INVALID_BUTTON_URL,
+        /**
+         * Buttons are combined with join, spectate or match secrets, which Discord doesn't allow.
+         */
+        BUTTONS_WITH_SECRETS
+    }
+}
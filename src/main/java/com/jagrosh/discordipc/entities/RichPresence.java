@@ -19,6 +19,9 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * An encapsulation of all data needed to properly construct a JSON RichPresence payload.
@@ -48,6 +51,7 @@ public class RichPresence
     private final String buttonUrl1;
     private final String buttonLabel2;
     private final String buttonUrl2;
+    private final List<PresenceViolation> violations;
     
     public RichPresence(String state, String details, OffsetDateTime startTimestamp, OffsetDateTime endTimestamp, 
             String largeImageKey, String largeImageText, String smallImageKey, String smallImageText, 
@@ -73,6 +77,41 @@ public class RichPresence
         this.buttonUrl1 = buttonUrl1;
         this.buttonLabel2 = buttonLabel2;
         this.buttonUrl2 = buttonUrl2;
+        this.violations = validate();
+    }
+
+    /**
+     * Gets every way in which this RichPresence breaks the limits Discord
+     * enforces, such as text that is too long or a party larger than its maximum.<p>
+     *
+     * This is worked out once when the RichPresence is built, so checking it is free.
+     * {@link com.jagrosh.discordipc.IPCClient#sendRichPresence(RichPresence, Callback)
+     * IPCClient#sendRichPresence} fails a RichPresence with violations straight away,
+     * without sending it to Discord.
+     *
+     * @return An unmodifiable list of the violations, empty if there are none.
+     */
+    public List<PresenceViolation> getViolations()
+    {
+        return violations;
+    }
+
+    /**
+     * Gets whether Discord would accept this RichPresence.
+     *
+     * @return {@code true} if this RichPresence has no {@link #getViolations() violations}.
+     */
+    public boolean isValid()
+    {
+        return violations.isEmpty();
+    }
+
+    /**
+     * @return The time this RichPresence counts down to, or {@code null} if it has none.
+     */
+    public OffsetDateTime getEndTimestamp()
+    {
+        return endTimestamp;
     }
 
     /**
@@ -153,6 +192,66 @@ public class RichPresence
         return payload;
     }
 
+    private List<PresenceViolation> validate()
+    {
+        List<PresenceViolation> found = new ArrayList<>(0);
+        checkLength(found, "state", state, 2, 128);
+        checkLength(found, "details", details, 2, 128);
+        checkLength(found, "assets.large_image", largeImageKey, 1, 256);
+        checkLength(found, "assets.large_text", largeImageText, 2, 128);
+        checkLength(found, "assets.small_image", smallImageKey, 1, 256);
+        checkLength(found, "assets.small_text", smallImageText, 2, 128);
+        checkLength(found, "party.id", partyId, 2, 128);
+        checkLength(found, "secrets.join", joinSecret, 2, 128);
+        checkLength(found, "secrets.spectate", spectateSecret, 2, 128);
+        checkLength(found, "secrets.match", matchSecret, 2, 128);
+
+        if(startTimestamp != null && endTimestamp != null && endTimestamp.isBefore(startTimestamp))
+            found.add(new PresenceViolation(PresenceViolation.Code.INVALID_TIMESTAMPS, "timestamps",
+                    "end is before start"));
+        if(partyId != null && (partySize < 1 || partyMax < 1 || partySize > partyMax))
+            found.add(new PresenceViolation(PresenceViolation.Code.INVALID_PARTY_SIZE, "party.size",
+                    "size " + partySize + " of " + partyMax + " is not between 1 and the maximum"));
+
+        boolean buttons = false;
+        if(buttonLabel1 != null && buttonUrl1 != null)
+        {
+            buttons = true;
+            checkButton(found, "buttons[0]", buttonLabel1, buttonUrl1);
+        }
+        if(buttonLabel2 != null && buttonUrl2 != null)
+        {
+            buttons = true;
+            checkButton(found, "buttons[1]", buttonLabel2, buttonUrl2);
+        }
+        if(buttons && (joinSecret != null || spectateSecret != null || matchSecret != null))
+            found.add(new PresenceViolation(PresenceViolation.Code.BUTTONS_WITH_SECRETS, "buttons",
+                    "buttons cannot be combined with secrets"));
+
+        return found.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList(found);
+    }
+
+    private static void checkButton(List<PresenceViolation> found, String field, String label, String url)
+    {
+        checkLength(found, field + ".label", label, 1, 32);
+        checkLength(found, field + ".url", url, 1, 512);
+        if(!url.startsWith("https://") && !url.startsWith("http://"))
+            found.add(new PresenceViolation(PresenceViolation.Code.INVALID_BUTTON_URL, field + ".url",
+                    "not an http or https URL"));
+    }
+
+    private static void checkLength(List<PresenceViolation> found, String field, String value, int min, int max)
+    {
+        if(value == null)
+            return;
+        if(value.length() < min)
+            found.add(new PresenceViolation(PresenceViolation.Code.TOO_SHORT, field,
+                    "shorter than " + min + " characters"));
+        else if(value.length() > max)
+            found.add(new PresenceViolation(PresenceViolation.Code.TOO_LONG, field,
+                    "longer than " + max + " characters"));
+    }
+
     /**
      * A chain builder for a {@link RichPresence} object.
      *
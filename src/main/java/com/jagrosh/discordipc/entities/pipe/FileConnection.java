@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Transport.Connection} over file channels, such as a Windows named
+ * pipe or a pair of FIFOs.<p>
+ *
+ * Reads go through a buffer, so a frame's header and payload usually arrive
+ * in a single read. When the channels read and write independently, reads
+ * simply block. A Windows named pipe is a single synchronous handle though,
+ * where a pending read would hold up every write, so instead the reader waits
+ * for data with an adaptive back-off: it spins briefly, then sleeps for
+ * {@value #MIN_BACKOFF_MICROS} microseconds doubling up to {@value #MAX_BACKOFF_MILLIS} ms
+ * while idle, and is woken early whenever a command is written, since that
+ * is when a response is due.
+ */
+public class FileConnection implements Transport.Connection
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileConnection.class);
+
+    static final int BUFFER_SIZE = 8192;
+    static final int SPINS = 64;
+    static final long MIN_BACKOFF_MICROS = 250;
+    static final long MAX_BACKOFF_MILLIS = 50;
+
+    private final FileChannel in;
+    private final FileChannel out;
+    private final Availability availability;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).flip();
+    private volatile Thread reader;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs a FileConnection.
+     *
+     * @param in The channel to read from.
+     * @param out The channel to write to, which may be the same as {@code in}.
+     * @param availability How many bytes can be read without blocking, or
+     *                     {@code null} if reads may simply block.
+     */
+    protected FileConnection(FileChannel in, FileChannel out, Availability availability)
+    {
+        this.in = in;
+        this.out = out;
+        this.availability = availability;
+    }
+
+    /**
+     * Opens a FileConnection over a pair of FIFOs, or any other pair of files
+     * that can be read and written independently.<p>
+     *
+     * Opening a FIFO blocks until the other side opens it too, so the other
+     * side must open {@code out} for reading before {@code in} for writing.
+     *
+     * @param in The file to read from.
+     * @param out The file to write to.
+     * @param blocking Whether reads block, rather than waiting for data the
+     *                 way they must on a Windows named pipe.
+     *
+     * @return The open FileConnection.
+     *
+     * @throws IOException If either file cannot be opened.
+     */
+    public static FileConnection open(Path in, Path out, boolean blocking) throws IOException
+    {
+        FileOutputStream output = new FileOutputStream(out.toFile());
+        FileInputStream input;
+        try
+        {
+            input = new FileInputStream(in.toFile());
+        }
+        catch(IOException e)
+        {
+            output.close();
+            throw e;
+        }
+        return new FileConnection(input.getChannel(), output.getChannel(), blocking ? null : input::available);
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException
+    {
+        int read = 0;
+        while(read < b.length)
+        {
+            if(!buffer.hasRemaining())
+            {
+                // large payloads skip the buffer instead of being copied through it
+                if(b.length - read >= BUFFER_SIZE)
+                {
+                    read += fill(ByteBuffer.wrap(b, read, b.length - read));
+                    continue;
+                }
+                buffer.clear();
+                try
+                {
+                    fill(buffer);
+                }
+                finally
+                {
+                    buffer.flip();
+                }
+            }
+            int n = Math.min(b.length - read, buffer.remaining());
+            buffer.get(b, read, n);
+            read += n;
+        }
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException
+    {
+        if(closed)
+            throw new AsynchronousCloseException();
+        ByteBuffer src = ByteBuffer.wrap(b);
+        while(src.hasRemaining())
+            out.write(src);
+        // a response is on its way, so stop the reader from sleeping through it
+        Thread waiting = reader;
+        if(waiting != null)
+            LockSupport.unpark(waiting);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        LOGGER.debug("Closing IPC pipe...");
+        closed = true;
+        Thread waiting = reader;
+        if(waiting != null)
+            LockSupport.unpark(waiting);
+        try
+        {
+            in.close();
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private int fill(ByteBuffer dst) throws IOException
+    {
+        if(availability != null)
+            awaitData();
+        if(closed)
+            throw new AsynchronousCloseException();
+        int n = in.read(dst);
+        if(n == -1)
+            throw new EOFException("Disconnected!");
+        return n;
+    }
+
+    private void awaitData() throws IOException
+    {
+        reader = Thread.currentThread();
+        try
+        {
+            int idle = 0;
+            while(!closed && availability.available() <= 0)
+            {
+                if(idle < SPINS)
+                {
+                    Thread.onSpinWait();
+                }
+                else
+                {
+                    long backoff = Math.min(TimeUnit.MICROSECONDS.toNanos(MIN_BACKOFF_MICROS) << Math.min(idle - SPINS, 16),
+                            TimeUnit.MILLISECONDS.toNanos(MAX_BACKOFF_MILLIS));
+                    long start = System.nanoTime();
+                    LockSupport.parkNanos(this, backoff);
+                    // woken early by a write, so start backing off from scratch
+                    if(System.nanoTime() - start < backoff)
+                    {
+                        idle = 0;
+                        continue;
+                    }
+                }
+                idle++;
+            }
+        }
+        finally
+        {
+            reader = null;
+        }
+    }
+
+    /**
+     * Reports how many bytes can be read without blocking.
+     */
+    @FunctionalInterface
+    public interface Availability
+    {
+        /**
+         * @return The number of bytes that can be read without blocking.
+         *
+         * @throws IOException If the connection broke.
+         */
+        long available() throws IOException;
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.IPCMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link Transport} Discord itself listens on: named pipes
+ * on Windows, and Unix domain sockets everywhere else.
+ */
+final class NativeTransport implements Transport
+{
+    static final NativeTransport INSTANCE = new NativeTransport();
+
+    // a list of system property keys to get IPC file from different unix systems.
+    private final static String[] unixPaths = {"XDG_RUNTIME_DIR","TMPDIR","TMP","TEMP"};
+
+    private NativeTransport() {}
+
+    @Override
+    public boolean isSupported()
+    {
+        String osName = System.getProperty("os.name").toLowerCase();
+        return osName.contains("win") || osName.contains("linux") || osName.contains("mac");
+    }
+
+    @Override
+    public List<String> getLocations()
+    {
+        List<String> locations = new ArrayList<>(IPCMetrics.DISCOVERY_CANDIDATES);
+        for(int i = 0; i < IPCMetrics.DISCOVERY_CANDIDATES; i++)
+            locations.add(getPipeLocation(i));
+        return locations;
+    }
+
+    @Override
+    public Connection connect(String location) throws IOException
+    {
+        String osName = System.getProperty("os.name").toLowerCase();
+
+        if (osName.contains("win"))
+        {
+            return new WindowsPipe(location);
+        }
+        else if (osName.contains("linux") || osName.contains("mac"))
+        {
+            return new UnixPipe(location);
+        }
+        else
+        {
+            throw new RuntimeException("Unsupported OS: " + osName);
+        }
+    }
+
+    /**
+     * Finds the IPC location in the current system.
+     *
+     * @param i Index to try getting the IPC at.
+     *
+     * @return The IPC location.
+     */
+    private static String getPipeLocation(int i)
+    {
+        if(System.getProperty("os.name").contains("Win"))
+            return "\\\\.\\pipe\\discord-ipc-"+i;
+        return getUnixTempDirectory()+"/discord-ipc-"+i;
+    }
+
+    static String getUnixTempDirectory()
+    {
+        String tmppath = null;
+        for(String str : unixPaths)
+        {
+            tmppath = System.getenv(str);
+            if(tmppath != null)
+                break;
+        }
+        if(tmppath == null)
+            tmppath = "/tmp";
+        return tmppath;
+    }
+}
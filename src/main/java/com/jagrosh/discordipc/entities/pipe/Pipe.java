@@ -16,55 +16,122 @@
 
 package com.jagrosh.discordipc.entities.pipe;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.jagrosh.discordipc.IPCClient;
 import com.jagrosh.discordipc.IPCListener;
+import com.jagrosh.discordipc.Utils;
 import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.ConnectionInfo;
 import com.jagrosh.discordipc.entities.DiscordBuild;
 import com.jagrosh.discordipc.entities.Packet;
 import com.jagrosh.discordipc.exceptions.NoDiscordClientException;
+import com.jagrosh.discordipc.jfr.HandshakeEvent;
+import com.jagrosh.discordipc.jfr.PacketReceivedEvent;
+import com.jagrosh.discordipc.jfr.PacketSentEvent;
+import com.jagrosh.discordipc.jfr.PipeProbeEvent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
-public abstract class Pipe {
+public class Pipe {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Pipe.class);
     private static final int VERSION = 1;
+
+    /**
+     * The handshake field a {@link com.jagrosh.discordipc.PresenceBroker PresenceBroker}
+     * peer states the priority of its presence in.
+     */
+    public static final String BROKER_PRIORITY = "broker_priority";
     PipeStatus status = PipeStatus.CONNECTING;
     IPCListener listener;
+    private volatile Executor callbackExecutor = Runnable::run;
     private DiscordBuild build;
+    private Packet ready;
+    private ConnectionInfo info;
+    private Pipe standby;
+    private String location;
     final IPCClient ipcClient;
-    private final HashMap<String,Callback> callbacks;
-
-    Pipe(IPCClient ipcClient, HashMap<String, Callback> callbacks)
+    private final PipeMetrics metrics;
+    private final Map<String,Callback> callbacks;
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile SessionRecorder recorder = null;
+    private final Transport.Connection connection;
+    private final Object writeLock = new Object();
+
+    Pipe(IPCClient ipcClient, PipeMetrics metrics, Map<String, Callback> callbacks, Transport.Connection connection)
     {
         this.ipcClient = ipcClient;
+        this.metrics = metrics;
         this.callbacks = callbacks;
+        this.connection = connection;
     }
 
-    public static Pipe openPipe(IPCClient ipcClient, long clientId, HashMap<String,Callback> callbacks,
+    public static Pipe openPipe(IPCClient ipcClient, long clientId, Map<String,Callback> callbacks,
                                 DiscordBuild... preferredOrder) throws NoDiscordClientException
     {
+        return openPipe(ipcClient, PipeMetrics.NONE, Transport.load(), clientId, callbacks, false, preferredOrder);
+    }
+
+    /**
+     * Finds and handshakes with the most preferred running Discord build.<p>
+     *
+     * With {@code keepStandby}, every candidate is probed rather than stopping
+     * at the first choice, and the next most preferred build found is kept
+     * handshaken as a standby, available from {@link #takeStandby()}.
+     *
+     * @param ipcClient The IPCClient the pipe belongs to.
+     * @param metrics Where the pipe records its traffic.
+     * @param transport The {@link Transport} to look for Discord with.
+     * @param clientId The client ID to handshake with.
+     * @param callbacks The callbacks awaiting responses.
+     * @param keepStandby Whether to keep a second build's pipe open.
+     * @param preferredOrder The priority order of client builds to connect to.
+     *
+     * @return The connected pipe.
+     *
+     * @throws NoDiscordClientException If no client of the preferred builds was found.
+     */
+    public static Pipe openPipe(IPCClient ipcClient, PipeMetrics metrics, Transport transport, long clientId, Map<String,Callback> callbacks,
+                                boolean keepStandby, DiscordBuild... preferredOrder) throws NoDiscordClientException
+    {
 
         if(preferredOrder == null || preferredOrder.length == 0)
             preferredOrder = new DiscordBuild[]{DiscordBuild.ANY};
 
         Pipe pipe = null;
+        Pipe chosen = null;
 
         // store some files so we can get the preferred client
         Pipe[] open = new Pipe[DiscordBuild.values().length];
-        for(int i = 0; i < 10; i++)
+        List<String> locations = transport.getLocations();
+        for(int i = 0; i < locations.size(); i++)
         {
+            long probeStart = System.nanoTime();
+            String location = locations.get(i);
+            PipeProbeEvent probe = new PipeProbeEvent();
+            probe.begin();
             try
             {
-                String location = getPipeLocation(i);
                 LOGGER.debug(String.format("Searching for IPC: %s", location));
-                pipe = createPipe(ipcClient, callbacks, location);
+                pipe = new Pipe(ipcClient, metrics, callbacks, transport.connect(location));
+                pipe.location = location;
+
+                HandshakeEvent handshake = new HandshakeEvent();
+                handshake.begin();
 
                 JsonObject payload = new JsonObject();
                 payload.addProperty("v", VERSION);
@@ -72,18 +139,33 @@ public abstract class Pipe {
 
                 pipe.send(Packet.OpCode.HANDSHAKE, payload, null);
 
-                Packet p = pipe.read(); // this is a valid client at this point
+                Packet p = pipe.read();
+                if(p.getOp() != Packet.OpCode.FRAME)
+                    throw new IOException("Handshake refused: " + p.getJson());
+
+                pipe.setReady(p); // this is a valid client at this point
 
-                pipe.build = DiscordBuild.from(p.getJson().getAsJsonObject().getAsJsonObject("data")
-                        .getAsJsonObject("config")
-                        .get("api_endpoint").getAsString());
+                handshake.end();
+                if(handshake.shouldCommit())
+                {
+                    handshake.clientId = clientId;
+                    handshake.location = location;
+                    handshake.build = pipe.build.name();
+                    handshake.commit();
+                }
+                probe.found = true;
+                probe.build = pipe.build.name();
 
                 LOGGER.debug(String.format("Found a valid client (%s) with packet: %s", pipe.build.name(), p.toString()));
-                // we're done if we found our first choice
-                if(pipe.build == preferredOrder[0] || DiscordBuild.ANY == preferredOrder[0])
+                // we're done if we found our first choice, unless we're looking for a standby too
+                if(chosen == null && (pipe.build == preferredOrder[0] || DiscordBuild.ANY == preferredOrder[0]))
                 {
                     LOGGER.info(String.format("Found preferred client: %s", pipe.build.name()));
-                    break;
+                    chosen = pipe;
+                    pipe = null;
+                    if(!keepStandby)
+                        break;
+                    continue;
                 }
 
                 open[pipe.build.ordinal()] = pipe; // didn't find first choice yet, so store what we have
@@ -94,10 +176,33 @@ public abstract class Pipe {
             }
             catch(IOException | JsonIOException ex)
             {
+                if(pipe != null)
+                {
+                    try
+                    {
+                        pipe.abort();
+                    }
+                    catch(IOException closeFailure)
+                    {
+                        LOGGER.debug("Failed to close rejected pipe", closeFailure);
+                    }
+                }
                 pipe = null;
             }
+            finally
+            {
+                metrics.recordDiscoveryProbe(i, System.nanoTime() - probeStart);
+                probe.end();
+                if(probe.shouldCommit())
+                {
+                    probe.index = i;
+                    probe.location = location;
+                    probe.commit();
+                }
+            }
         }
 
+        pipe = chosen;
         if(pipe == null)
         {
             // we already know we don't have our first pick
@@ -132,6 +237,9 @@ public abstract class Pipe {
                 throw new NoDiscordClientException();
             }
         }
+        if(keepStandby)
+            pipe.standby = pickStandby(open, pipe, preferredOrder);
+
         // close unused files, except skip 'any' because its always a duplicate
         for(int i = 0; i < open.length; i++)
         {
@@ -154,27 +262,118 @@ public abstract class Pipe {
         return pipe;
     }
 
-    private static Pipe createPipe(IPCClient ipcClient, HashMap<String, Callback> callbacks, String location) {
-        String osName = System.getProperty("os.name").toLowerCase();
+    /**
+     * Connects to the {@link com.jagrosh.discordipc.PresenceBroker PresenceBroker}
+     * serving the given client ID on this machine, instead of to Discord itself.
+     *
+     * @param ipcClient The IPCClient the pipe belongs to.
+     * @param metrics Where the pipe records its traffic.
+     * @param clientId The client ID to handshake with.
+     * @param callbacks The callbacks awaiting responses.
+     * @param priority The priority of this process's presence.
+     *
+     * @return The connected pipe.
+     *
+     * @throws IOException If no broker is serving, or the handshake fails.
+     */
+    public static Pipe openBrokerPipe(IPCClient ipcClient, PipeMetrics metrics, long clientId, Map<String,Callback> callbacks,
+                                      int priority) throws IOException
+    {
+        String location = getBrokerLocation(clientId).toString();
+        JsonObject payload = new JsonObject();
+        payload.addProperty(BROKER_PRIORITY, priority);
+        Pipe pipe = handshake(new Pipe(ipcClient, metrics, callbacks, new UnixPipe(location)), location, clientId, payload);
+        LOGGER.info(String.format("Connected to presence broker for client: %s", pipe.build.name()));
+        return pipe;
+    }
 
-        if (osName.contains("win"))
+    /**
+     * Reconnects straight to a location found by an earlier discovery,
+     * skipping the probing of every candidate.
+     *
+     * @param ipcClient The IPCClient the pipe belongs to.
+     * @param metrics Where the pipe records its traffic.
+     * @param transport The {@link Transport} the pipe was opened with.
+     * @param clientId The client ID to handshake with.
+     * @param callbacks The callbacks awaiting responses.
+     * @param location The location, as given by {@link #getLocation()}.
+     *
+     * @return The connected pipe.
+     *
+     * @throws IOException If nothing answers at the location any more.
+     */
+    public static Pipe reopenPipe(IPCClient ipcClient, PipeMetrics metrics, Transport transport, long clientId, Map<String,Callback> callbacks,
+                                  String location) throws IOException
+    {
+        Pipe pipe = handshake(new Pipe(ipcClient, metrics, callbacks, transport.connect(location)), location, clientId, new JsonObject());
+        LOGGER.info(String.format("Reconnected to client: %s", pipe.build.name()));
+        return pipe;
+    }
+
+    /**
+     * Handshakes on a freshly opened pipe, closing it if that fails.
+     *
+     * @param payload Any extra handshake fields.
+     */
+    private static Pipe handshake(Pipe pipe, String location, long clientId, JsonObject payload) throws IOException
+    {
+        pipe.location = location;
+        try
         {
-            return new WindowsPipe(ipcClient, callbacks, location);
+            payload.addProperty("v", VERSION);
+            payload.addProperty("client_id", Long.toString(clientId));
+            pipe.send(Packet.OpCode.HANDSHAKE, payload, null);
+
+            Packet p = pipe.read();
+            if(p.getOp() != Packet.OpCode.FRAME)
+                throw new IOException("Handshake refused: " + p.getJson());
+            pipe.setReady(p);
         }
-        else if (osName.contains("linux") || osName.contains("mac"))
+        catch(IOException | RuntimeException ex)
         {
-            try {
-                return new UnixPipe(ipcClient, callbacks, location);
-            }
-            catch (IOException e)
+            pipe.abort();
+            throw ex instanceof IOException ? (IOException) ex : new IOException("Invalid handshake", ex);
+        }
+        pipe.status = PipeStatus.CONNECTED;
+        return pipe;
+    }
+
+    /**
+     * Takes the most preferred pipe left over from discovery out of
+     * {@code open}, so that it isn't closed.
+     *
+     * @return The standby pipe, or {@code null} if there is none.
+     */
+    private static Pipe pickStandby(Pipe[] open, Pipe primary, DiscordBuild[] preferredOrder)
+    {
+        Pipe standby = null;
+        for(DiscordBuild cb : preferredOrder)
+        {
+            if(cb != DiscordBuild.ANY && open[cb.ordinal()] != null && open[cb.ordinal()] != primary)
             {
-                throw new RuntimeException(e);
+                standby = open[cb.ordinal()];
+                break;
             }
         }
-        else
+        // fall back to whatever else is running
+        for(int k = 0; standby == null && k < open.length; k++)
+            if(k != DiscordBuild.ANY.ordinal() && open[k] != null && open[k] != primary)
+                standby = open[k];
+        if(standby == null)
+            return null;
+
+        for(int k = 0; k < open.length; k++)
         {
-            throw new RuntimeException("Unsupported OS: " + osName);
+            if(open[k] == standby)
+            {
+                if(k != DiscordBuild.ANY.ordinal())
+                    standby.build = DiscordBuild.values()[k];
+                open[k] = null;
+            }
         }
+        standby.status = PipeStatus.CONNECTED;
+        LOGGER.info(String.format("Keeping standby client: %s", standby.build.name()));
+        return standby;
     }
 
     /**
@@ -186,23 +385,185 @@ public abstract class Pipe {
      */
     public void send(Packet.OpCode op, JsonObject data, Callback callback)
     {
+        sendAll(op, Collections.singletonList(data), Collections.singletonList(callback));
+    }
+
+    /**
+     * Sends several json payloads with the given {@link Packet.OpCode},
+     * encoded back to back and flushed with a single write.<p>
+     *
+     * If the write fails, the {@link Callback Callbacks} of every
+     * payload are failed straight away.
+     *
+     * @param op The {@link Packet.OpCode} to send data with.
+     * @param data The data to send, one frame each.
+     * @param callbacks The callbacks for each frame's response, matching {@code data} by index.
+     *                  Elements may be {@code null}.
+     */
+    public void sendAll(Packet.OpCode op, List<JsonObject> data, List<Callback> callbacks)
+    {
+        int count = data.size();
+        Packet[] packets = new Packet[count];
+        String[] nonces = new String[count];
+        byte[][] frames = new byte[count][];
+        int total = 0;
+        IOException failure;
+        // framed under the write lock too, so commands are registered, written and recorded in the same order
+        synchronized(writeLock)
+        {
+            for(int i = 0; i < count; i++)
+            {
+                JsonObject json = data.get(i);
+                Callback callback = callbacks.get(i);
+                nonces[i] = generateNonce();
+                json.addProperty("nonce", nonces[i]);
+                packets[i] = new Packet(op, json);
+                if(callback!=null && !callback.isEmpty())
+                    this.callbacks.put(nonces[i], callback);
+                if(json.has("cmd"))
+                    metrics.recordCommandSent(nonces[i], json.get("cmd").getAsString());
+                frames[i] = packets[i].toBytes();
+                total += frames[i].length;
+            }
+            failure = flush(packets, frames, nonces, total);
+        }
+        if(failure != null)
+        {
+            String message = "Failed to send packet: " + failure.getMessage();
+            for(int i = 0; i < count; i++)
+            {
+                if("SET_ACTIVITY".equals(Utils.getJsonStringOrDefault(data.get(i), "cmd", null)))
+                    metrics.recordDroppedUpdate();
+                Callback callback = this.callbacks.remove(nonces[i]);
+                if(callback != null)
+                    callbackExecutor.execute(() -> callback.fail(message));
+            }
+        }
+    }
+
+    /**
+     * Sends json with the given {@link Packet.OpCode} exactly as it is,
+     * without a nonce and without expecting a response.<p>
+     *
+     * This is used for frames such as {@link Packet.OpCode#PONG} that
+     * have to echo another frame's payload.
+     *
+     * @param op The {@link Packet.OpCode} to send data with.
+     * @param data The data to send.
+     */
+    public void sendRaw(Packet.OpCode op, JsonElement data)
+    {
+        Packet p = new Packet(op, data);
+        byte[] frame = p.toBytes();
+        synchronized(writeLock)
+        {
+            flush(new Packet[]{p}, new byte[][]{frame}, new String[1], frame.length);
+        }
+    }
+
+    /**
+     * Writes already encoded frames with a single write, then records
+     * and announces each of them. Must hold the write lock.
+     *
+     * @return The exception the write failed with, or {@code null} if it succeeded.
+     */
+    private IOException flush(Packet[] packets, byte[][] frames, String[] nonces, int total)
+    {
+        int count = packets.length;
+        byte[] bytes = frames[0];
+        if(count > 1)
+        {
+            ByteBuffer buffer = ByteBuffer.allocate(total);
+            for(byte[] frame : frames)
+                buffer.put(frame);
+            bytes = buffer.array();
+        }
+
+        PacketSentEvent[] events = null;
+        if(new PacketSentEvent().isEnabled())
+        {
+            events = new PacketSentEvent[count];
+            for(int i = 0; i < count; i++)
+            {
+                events[i] = new PacketSentEvent();
+                events[i].begin();
+            }
+        }
+
         try
         {
-            String nonce = generateNonce();
-            data.addProperty("nonce", nonce);
-            Packet p = new Packet(op, data);
-            if(callback!=null && !callback.isEmpty())
-                callbacks.put(nonce, callback);
-            write(p.toBytes());
-            LOGGER.debug("Sent packet: {}", p);
-            if(listener != null)
-                listener.onPacketSent(ipcClient, p);
+            write(bytes);
         }
         catch(IOException ex)
         {
             LOGGER.error("Encountered an IOException while sending a packet and disconnected!");
             status = PipeStatus.DISCONNECTED;
+            return ex;
+        }
+
+        SessionRecorder rec = recorder;
+        for(int i = 0; i < count; i++)
+        {
+            Packet.OpCode op = packets[i].getOp();
+            metrics.recordOutbound(op, frames[i].length);
+            if(rec != null)
+                rec.record(SessionRecorder.Direction.OUTBOUND, op, frames[i], 2 * Integer.BYTES, frames[i].length - 2 * Integer.BYTES);
+            if(events != null)
+            {
+                events[i].end();
+                if(events[i].shouldCommit())
+                {
+                    JsonObject json = packets[i].getJson().isJsonObject() ? packets[i].getJson().getAsJsonObject() : new JsonObject();
+                    events[i].opcode = op.name();
+                    events[i].size = frames[i].length;
+                    events[i].nonce = nonces[i];
+                    events[i].cmd = Utils.getJsonStringOrDefault(json, "cmd", null);
+                    events[i].evt = Utils.getJsonStringOrDefault(json, "evt", null);
+                    events[i].commit();
+                }
+            }
+            LOGGER.debug("Sent packet: {}", packets[i]);
+            if(listener != null)
+                listener.onPacketSent(ipcClient, packets[i]);
         }
+        return null;
+    }
+
+    /**
+     * Handles a {@link Packet} that has just been read from the pipe,
+     * recording it and notifying the {@link IPCListener}.
+     *
+     * @param p The Packet read.
+     * @param payload The Packet's payload, as it was read.
+     *
+     * @return The same Packet.
+     */
+    Packet received(Packet p, byte[] payload)
+    {
+        lastReadNanos = System.nanoTime();
+        int length = payload.length + 2 * Integer.BYTES;
+        SessionRecorder rec = recorder;
+        if(rec != null)
+            rec.record(SessionRecorder.Direction.INBOUND, p.getOp(), payload, 0, payload.length);
+        metrics.recordInbound(p.getOp(), length);
+        PacketReceivedEvent event = new PacketReceivedEvent();
+        if(event.isEnabled())
+        {
+            event.opcode = p.getOp().name();
+            event.size = length;
+            if(p.getJson() != null && p.getJson().isJsonObject())
+            {
+                JsonObject json = p.getJson().getAsJsonObject();
+                event.nonce = Utils.getJsonStringOrDefault(json, "nonce", null);
+                event.cmd = Utils.getJsonStringOrDefault(json, "cmd", null);
+                event.evt = Utils.getJsonStringOrDefault(json, "evt", null);
+            }
+            event.commit();
+        }
+        LOGGER.debug("Received packet: {}", p);
+        if(listener != null)
+            listener.onPacketReceived(ipcClient, p);
+        return p;
     }
 
     /**
@@ -216,9 +577,52 @@ public abstract class Pipe {
      * @throws JsonIOException
      *         If the read thread receives bad data.
      */
-    public abstract Packet read() throws IOException, JsonIOException;
+    public Packet read() throws IOException, JsonIOException
+    {
+        if(status==PipeStatus.DISCONNECTED)
+            throw new IOException("Disconnected!");
 
-    public abstract void write(byte[] b) throws IOException;
+        if(status==PipeStatus.CLOSED)
+            return new Packet(Packet.OpCode.CLOSE, null);
+
+        try
+        {
+            // Read the op and length. Both are signed ints
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            connection.readFully(header.array());
+            int op = Integer.reverseBytes(header.getInt());
+            int length = Integer.reverseBytes(header.getInt());
+
+            byte[] data = new byte[length];
+            connection.readFully(data);
+
+            Packet.OpCode opcode = Packet.OpCode.values()[op];
+            return received(new Packet(opcode, JsonParser.parseString(new String(data, StandardCharsets.UTF_8))), data);
+        }
+        catch(EOFException ex)
+        {
+            status = PipeStatus.DISCONNECTED;
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes bytes to the connection as they are.<p>
+     *
+     * Writes from any number of threads are serialized, as a
+     * {@link Transport.Connection} only takes one writer at a time.
+     *
+     * @param b The bytes to write.
+     *
+     * @throws IOException If the connection broke or was closed.
+     */
+    public void write(byte[] b) throws IOException
+    {
+        synchronized(writeLock)
+        {
+            connection.write(b);
+        }
+    }
 
     /**
      * Generates a nonce.
@@ -245,36 +649,132 @@ public abstract class Pipe {
         this.listener = listener;
     }
 
-    public abstract void close() throws IOException;
+    /**
+     * Sets where the {@link Callback Callbacks} this pipe fails itself, such
+     * as when a write fails, are completed. By default they are completed on
+     * the writing thread.
+     *
+     * @param callbackExecutor The executor to complete Callbacks on.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor)
+    {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Sets the {@link SessionRecorder} capturing every frame this pipe sends
+     * and receives from now on, or {@code null} to stop capturing.
+     *
+     * @param recorder The recorder to use.
+     */
+    public void setRecorder(SessionRecorder recorder)
+    {
+        this.recorder = recorder;
+    }
+
+    public void close() throws IOException
+    {
+        LOGGER.debug("Closing IPC pipe...");
+        send(Packet.OpCode.CLOSE, new JsonObject(), null);
+        status = PipeStatus.CLOSED;
+        connection.close();
+    }
+
+    /**
+     * Closes the pipe immediately, without sending a {@link Packet.OpCode#CLOSE}
+     * first, and marks it {@link PipeStatus#DISCONNECTED}.<p>
+     *
+     * This is for connections that are no longer trusted to accept writes,
+     * and unblocks any thread waiting in {@link #read()}.
+     *
+     * @throws IOException If the underlying pipe fails to close.
+     */
+    public void abort() throws IOException
+    {
+        LOGGER.debug("Aborting IPC pipe...");
+        status = PipeStatus.DISCONNECTED;
+        connection.close();
+    }
+
+    /**
+     * Gets when a {@link Packet} was last read from this pipe, as a
+     * {@link System#nanoTime()} value. Before the first read, this is
+     * when the pipe was created.
+     *
+     * @return The time of the last read.
+     */
+    public long getLastReadNanos()
+    {
+        return lastReadNanos;
+    }
 
     public DiscordBuild getDiscordBuild()
     {
         return build;
     }
 
-    // a list of system property keys to get IPC file from different unix systems.
-    private final static String[] unixPaths = {"XDG_RUNTIME_DIR","TMPDIR","TMP","TEMP"};
+    /**
+     * Hands over the standby pipe kept by {@link #openPipe(IPCClient, PipeMetrics, Transport, long, Map, boolean, DiscordBuild...)},
+     * leaving none behind.
+     *
+     * @return The standby pipe, or {@code null} if there is none.
+     */
+    public Pipe takeStandby()
+    {
+        Pipe taken = standby;
+        standby = null;
+        return taken;
+    }
+
+    /**
+     * Gets where this pipe was opened, for {@link #reopenPipe(IPCClient, PipeMetrics, Transport, long, Map, String)}.
+     *
+     * @return The location of this pipe.
+     */
+    public String getLocation()
+    {
+        return location;
+    }
 
     /**
-     * Finds the IPC location in the current system.
+     * Gets the {@code READY} Discord answered the handshake with.
      *
-     * @param i Index to try getting the IPC at.
+     * @return The READY {@link Packet}.
+     */
+    public Packet getReadyPacket()
+    {
+        return ready;
+    }
+
+    /**
+     * Gets what the {@code READY} Discord answered the handshake with says about the connection.
      *
-     * @return The IPC location.
+     * @return The {@link ConnectionInfo}.
      */
-    private static String getPipeLocation(int i)
+    public ConnectionInfo getConnectionInfo()
     {
-        if(System.getProperty("os.name").contains("Win"))
-            return "\\\\.\\pipe\\discord-ipc-"+i;
-        String tmppath = null;
-        for(String str : unixPaths)
-        {
-            tmppath = System.getenv(str);
-            if(tmppath != null)
-                break;
-        }
-        if(tmppath == null)
-            tmppath = "/tmp";
-        return tmppath+"/discord-ipc-"+i;
+        return info;
+    }
+
+    private void setReady(Packet p)
+    {
+        ready = p;
+        info = ConnectionInfo.fromReady(p.getJson().getAsJsonObject().getAsJsonObject("data"));
+        build = info.getBuild();
+    }
+
+    /**
+     * Finds where a {@link com.jagrosh.discordipc.PresenceBroker PresenceBroker}
+     * for the given client ID serves its socket.
+     *
+     * @param clientId The client ID being brokered.
+     *
+     * @return The location of the broker socket.
+     */
+    public static Path getBrokerLocation(long clientId)
+    {
+        String dir = System.getProperty("os.name").contains("Win")
+                ? System.getProperty("java.io.tmpdir") : NativeTransport.getUnixTempDirectory();
+        return Path.of(dir, "discord-ipc-broker-" + clientId);
     }
 }
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+
+/**
+ * Where a {@link Pipe} records its traffic.<p>
+ *
+ * Only implemented internally: the {@link com.jagrosh.discordipc.IPCMetrics IPCMetrics}
+ * of an {@link com.jagrosh.discordipc.IPCClient IPCClient} hands one to each of
+ * its pipes, and never exposes it, so nothing outside the library can record
+ * into the metrics.
+ */
+public interface PipeMetrics
+{
+    /**
+     * Records nothing, for pipes opened without an IPCClient's metrics.
+     */
+    PipeMetrics NONE = new PipeMetrics()
+    {
+        @Override
+        public void recordOutbound(OpCode op, int bytes) {}
+
+        @Override
+        public void recordInbound(OpCode op, int bytes) {}
+
+        @Override
+        public void recordCommandSent(String nonce, String cmd) {}
+
+        @Override
+        public void recordDroppedUpdate() {}
+
+        @Override
+        public void recordDiscoveryProbe(int index, long nanos) {}
+    };
+
+    /**
+     * Records a frame written to Discord.
+     *
+     * @param op The {@link OpCode} of the frame.
+     * @param bytes The size of the frame, header included.
+     */
+    void recordOutbound(OpCode op, int bytes);
+
+    /**
+     * Records a frame read from Discord.
+     *
+     * @param op The {@link OpCode} of the frame.
+     * @param bytes The size of the frame, header included.
+     */
+    void recordInbound(OpCode op, int bytes);
+
+    /**
+     * Marks a command as awaiting its acknowledgement from Discord.
+     *
+     * @param nonce The nonce the command was sent with.
+     * @param cmd The command name, such as {@code SET_ACTIVITY}.
+     */
+    void recordCommandSent(String nonce, String cmd);
+
+    /**
+     * Records a presence update that could not be delivered to Discord.
+     */
+    void recordDroppedUpdate();
+
+    /**
+     * Records how long probing a single discovery candidate took.
+     *
+     * @param index The index of the pipe location probed.
+     * @param nanos The time taken, in nanoseconds.
+     */
+    void recordDiscoveryProbe(int index, long nanos);
+}
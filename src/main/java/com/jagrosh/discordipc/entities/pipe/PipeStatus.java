@@ -37,7 +37,8 @@ public enum PipeStatus
     /**
      * Status for when the Pipe is attempting to connect.<p>
      *
-     * This will become set whenever the #connect() method is called.
+     * This is reported while {@link IPCClient#connectAsync(DiscordBuild...)}
+     * is still looking for Discord or awaiting its handshake.
      */
     CONNECTING,
 
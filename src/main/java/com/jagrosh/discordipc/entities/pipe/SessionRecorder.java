@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Captures every frame a {@link Pipe} sends and receives to an append-only,
+ * memory-mapped file, for later use with {@link SessionReplay}.<p>
+ *
+ * Appending a frame is a copy into the mapped region, so recording costs
+ * little more than the copy itself. The file grows in chunks of
+ * {@link #CHUNK_SIZE} bytes and is trimmed to its contents when closed.<p>
+ *
+ * The file starts with a header of the {@link #MAGIC} number, the format
+ * {@link #VERSION} and the wall clock time the capture started, in epoch
+ * milliseconds. Each frame that follows is stored as:
+ * <ul>
+ *     <li>{@code long} nanoseconds since the capture started</li>
+ *     <li>{@code byte} {@link Direction}, {@code 1} inbound or {@code 2} outbound</li>
+ *     <li>{@code int} {@link Packet.OpCode} ordinal</li>
+ *     <li>{@code int} payload length</li>
+ *     <li>the payload, exactly as it was on the wire</li>
+ * </ul>
+ * A zero {@link Direction} marks the end of a capture that was not closed cleanly.
+ */
+public final class SessionRecorder implements Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionRecorder.class);
+
+    /**
+     * The number identifying a capture file, {@code "DIPC"} in ASCII.
+     */
+    public static final int MAGIC = 0x44495043;
+
+    /**
+     * The version of the capture format.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * How many bytes the file grows by when it runs out of room.
+     */
+    public static final int CHUNK_SIZE = 4 * 1024 * 1024;
+
+    static final int HEADER_SIZE = Integer.BYTES + Short.BYTES + Long.BYTES;
+    static final int RECORD_HEADER_SIZE = Long.BYTES + 1 + 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final long startNanos = System.nanoTime();
+    private MappedByteBuffer region;
+    private long position = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates a capture file at the given path, replacing any file already there.
+     *
+     * @param path Where to write the capture.
+     *
+     * @throws IOException If the file cannot be created or mapped.
+     */
+    public SessionRecorder(Path path) throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        map(HEADER_SIZE);
+        region.putInt(MAGIC);
+        region.putShort(VERSION);
+        region.putLong(System.currentTimeMillis());
+        position = HEADER_SIZE;
+    }
+
+    /**
+     * Appends a frame to the capture. Does nothing once the recorder is closed.
+     *
+     * @param direction Whether the frame was received or sent.
+     * @param op The {@link Packet.OpCode} of the frame.
+     * @param payload An array holding the frame's payload.
+     * @param offset Where the payload starts in the array.
+     * @param length The length of the payload.
+     */
+    public synchronized void record(Direction direction, Packet.OpCode op, byte[] payload, int offset, int length)
+    {
+        if(closed)
+            return;
+        long timestamp = System.nanoTime() - startNanos;
+        int size = RECORD_HEADER_SIZE + length;
+        try
+        {
+            if(region.remaining() < size)
+                map(size);
+        }
+        catch(IOException ex)
+        {
+            LOGGER.error("Failed to grow session capture, recording stopped", ex);
+            closed = true;
+            return;
+        }
+        region.putLong(timestamp);
+        region.put(direction.id);
+        region.putInt(op.ordinal());
+        region.putInt(length);
+        region.put(payload, offset, length);
+        position += size;
+    }
+
+    /**
+     * @return The number of bytes captured so far, header included.
+     */
+    public synchronized long getSize()
+    {
+        return position;
+    }
+
+    /**
+     * Stops recording and trims the file to what was captured.
+     *
+     * @throws IOException If the file cannot be trimmed or closed.
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if(!channel.isOpen())
+            return;
+        closed = true;
+        region.force();
+        region = null;
+        try
+        {
+            channel.truncate(position);
+        }
+        catch(IOException ex)
+        {
+            // some platforms refuse while the region is still mapped, the end marker covers it
+            LOGGER.debug("Failed to trim session capture", ex);
+        }
+        channel.close();
+    }
+
+    /**
+     * Maps a new region starting at the current position with room for at least {@code needed} bytes.
+     */
+    private void map(int needed) throws IOException
+    {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(CHUNK_SIZE, needed));
+    }
+
+    /**
+     * Which way a captured frame travelled.
+     */
+    public enum Direction
+    {
+        /**
+         * Received from Discord.
+         */
+        INBOUND((byte) 1),
+
+        /**
+         * Sent to Discord.
+         */
+        OUTBOUND((byte) 2);
+
+        private final byte id;
+
+        Direction(byte id)
+        {
+            this.id = id;
+        }
+
+        static Direction from(byte id)
+        {
+            for(Direction direction : values())
+                if(direction.id == id)
+                    return direction;
+            return null;
+        }
+    }
+}
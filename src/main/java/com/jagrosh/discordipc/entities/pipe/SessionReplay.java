@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.pipe.SessionRecorder.Direction;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Plays back a capture written by a {@link SessionRecorder}.<p>
+ *
+ * Frames can be fed either to a decoder, as {@link Packet Packets}, or as raw
+ * frames to a channel such as a socket standing in for Discord. Either way
+ * they go out at their original pace or as fast as possible, which makes it
+ * possible to reproduce a burst of events seen in the wild and to benchmark
+ * the read path against real traffic.
+ */
+public final class SessionReplay implements Iterable<SessionReplay.Frame>
+{
+    private final ByteBuffer buffer;
+    private final long startedMillis;
+
+    /**
+     * Opens a capture file.
+     *
+     * @param path The capture to open.
+     *
+     * @throws IOException If the file cannot be read or is not a capture.
+     */
+    public SessionReplay(Path path) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Capture is too large to replay: " + channel.size() + " bytes");
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if(buffer.remaining() < SessionRecorder.HEADER_SIZE || buffer.getInt() != SessionRecorder.MAGIC)
+            throw new IOException("Not a session capture: " + path);
+        short version = buffer.getShort();
+        if(version != SessionRecorder.VERSION)
+            throw new IOException("Unsupported session capture version: " + version);
+        startedMillis = buffer.getLong();
+    }
+
+    /**
+     * @return When the capture started, in epoch milliseconds.
+     */
+    public long getStartedMillis()
+    {
+        return startedMillis;
+    }
+
+    /**
+     * Iterates over every captured frame, in the order they were recorded.
+     */
+    @Override
+    public Iterator<Frame> iterator()
+    {
+        ByteBuffer frames = buffer.slice();
+        return new Iterator<>()
+        {
+            @Override
+            public boolean hasNext()
+            {
+                return frames.remaining() >= SessionRecorder.RECORD_HEADER_SIZE
+                        && Direction.from(frames.get(frames.position() + Long.BYTES)) != null;
+            }
+
+            @Override
+            public Frame next()
+            {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                long timestamp = frames.getLong();
+                Direction direction = Direction.from(frames.get());
+                Packet.OpCode op = Packet.OpCode.values()[frames.getInt()];
+                byte[] payload = new byte[frames.getInt()];
+                frames.get(payload);
+                return new Frame(timestamp, direction, op, payload);
+            }
+        };
+    }
+
+    /**
+     * Decodes the frames that travelled in one {@link Direction} and
+     * hands each resulting {@link Packet} to a consumer.
+     *
+     * @param direction The frames to replay.
+     * @param pace How quickly to replay them.
+     * @param consumer Receives each decoded Packet.
+     *
+     * @return The number of frames replayed.
+     */
+    public int replay(Direction direction, Pace pace, Consumer<Packet> consumer)
+    {
+        return play(direction, pace, frame -> consumer.accept(frame.toPacket()));
+    }
+
+    /**
+     * Writes the frames that travelled in one {@link Direction} to a
+     * channel, exactly as they appeared on the wire.
+     *
+     * @param direction The frames to replay.
+     * @param pace How quickly to replay them.
+     * @param channel Where to write the frames.
+     *
+     * @return The number of frames replayed.
+     *
+     * @throws IOException If writing to the channel fails.
+     */
+    public int replay(Direction direction, Pace pace, WritableByteChannel channel) throws IOException
+    {
+        return play(direction, pace, frame -> {
+            ByteBuffer bytes = ByteBuffer.wrap(frame.toBytes());
+            while(bytes.hasRemaining())
+                channel.write(bytes);
+        });
+    }
+
+    private <X extends Exception> int play(Direction direction, Pace pace, FrameHandler<X> handler) throws X
+    {
+        int count = 0;
+        long firstTimestamp = -1;
+        long startNanos = System.nanoTime();
+        for(Frame frame : this)
+        {
+            if(frame.getDirection() != direction)
+                continue;
+            if(pace == Pace.ORIGINAL)
+            {
+                if(firstTimestamp < 0)
+                    firstTimestamp = frame.getTimestampNanos();
+                long due = startNanos + frame.getTimestampNanos() - firstTimestamp;
+                long wait;
+                while((wait = due - System.nanoTime()) > 0)
+                    LockSupport.parkNanos(wait);
+            }
+            handler.handle(frame);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * How quickly frames are replayed.
+     */
+    public enum Pace
+    {
+        /**
+         * Keeps the gaps between frames as they were recorded.
+         */
+        ORIGINAL,
+
+        /**
+         * Replays frames back to back, as fast as they can be handled.
+         */
+        MAX
+    }
+
+    /**
+     * A single captured frame.
+     */
+    public static final class Frame
+    {
+        private final long timestampNanos;
+        private final Direction direction;
+        private final Packet.OpCode op;
+        private final byte[] payload;
+
+        private Frame(long timestampNanos, Direction direction, Packet.OpCode op, byte[] payload)
+        {
+            this.timestampNanos = timestampNanos;
+            this.direction = direction;
+            this.op = op;
+            this.payload = payload;
+        }
+
+        /**
+         * @return When the frame was captured, in nanoseconds since the capture started.
+         */
+        public long getTimestampNanos()
+        {
+            return timestampNanos;
+        }
+
+        public Direction getDirection()
+        {
+            return direction;
+        }
+
+        public Packet.OpCode getOp()
+        {
+            return op;
+        }
+
+        /**
+         * @return The frame's payload, as it was on the wire.
+         */
+        public byte[] getPayload()
+        {
+            return payload;
+        }
+
+        /**
+         * Decodes this frame the same way a {@link Pipe} does.
+         *
+         * @return The decoded {@link Packet}.
+         */
+        public Packet toPacket()
+        {
+            return new Packet(op, JsonParser.parseString(new String(payload, StandardCharsets.UTF_8)));
+        }
+
+        /**
+         * @return This frame as it was on the wire, header included.
+         */
+        public byte[] toBytes()
+        {
+            ByteBuffer frame = ByteBuffer.allocate(payload.length + 2 * Integer.BYTES);
+            frame.putInt(Integer.reverseBytes(op.ordinal()));
+            frame.putInt(Integer.reverseBytes(payload.length));
+            frame.put(payload);
+            return frame.array();
+        }
+    }
+
+    @FunctionalInterface
+    private interface FrameHandler<X extends Exception>
+    {
+        void handle(Frame frame) throws X;
+    }
+}
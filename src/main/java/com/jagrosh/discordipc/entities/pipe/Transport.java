@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Carries the bytes of a {@link Pipe} to and from Discord.<p>
+ *
+ * A Transport only moves bytes: framing, handshakes, callbacks and status all
+ * stay in the Pipe, so an implementation never sees an
+ * {@link com.jagrosh.discordipc.IPCClient IPCClient}. By default, the IPC
+ * socket or named pipe of the running operating system is used.<p>
+ *
+ * Other Transports can either be set on a single client with
+ * {@link com.jagrosh.discordipc.IPCClient#setTransport(Transport) IPCClient#setTransport(Transport)},
+ * or provided to every client through {@link ServiceLoader}, by listing the
+ * implementation in {@code META-INF/services/com.jagrosh.discordipc.entities.pipe.Transport}.
+ * The first provider that {@link #isSupported() is supported} wins.
+ */
+public interface Transport
+{
+    /**
+     * @return Whether this Transport can be used on this system.
+     */
+    boolean isSupported();
+
+    /**
+     * Lists where Discord may be listening, in the order they are probed.
+     *
+     * @return The candidate locations.
+     */
+    List<String> getLocations();
+
+    /**
+     * Opens a connection to a location.
+     *
+     * @param location One of the {@link #getLocations() candidate locations}.
+     *
+     * @return The open connection.
+     *
+     * @throws IOException If nothing is listening at the location.
+     */
+    Connection connect(String location) throws IOException;
+
+    /**
+     * Finds the Transport to use when none was set explicitly.
+     *
+     * @return The first supported Transport provided through {@link ServiceLoader},
+     *         or the one for the running operating system.
+     */
+    static Transport load()
+    {
+        for(Transport transport : ServiceLoader.load(Transport.class))
+            if(transport.isSupported())
+                return transport;
+        return NativeTransport.INSTANCE;
+    }
+
+    /**
+     * A single open connection to Discord.<p>
+     *
+     * Reads only ever happen on one thread at a time, and so do writes,
+     * but a read and a write may happen concurrently. {@link #close()}
+     * may be called from any thread and must unblock a pending read.
+     */
+    interface Connection extends Closeable
+    {
+        /**
+         * Blocks until the array is completely filled.
+         *
+         * @param b The array to read into.
+         *
+         * @throws java.io.EOFException If the other side closed the connection.
+         * @throws IOException If the connection broke or was closed.
+         */
+        void readFully(byte[] b) throws IOException;
+
+        /**
+         * Writes the whole array.
+         *
+         * @param b The bytes to write.
+         *
+         * @throws IOException If the connection broke or was closed.
+         */
+        void write(byte[] b) throws IOException;
+    }
+}
@@ -16,66 +16,39 @@
 
 package com.jagrosh.discordipc.entities.pipe;
 
-import com.google.gson.JsonIOException;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.jagrosh.discordipc.IPCClient;
-import com.jagrosh.discordipc.entities.Callback;
-import com.jagrosh.discordipc.entities.Packet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.file.Path;
-import java.util.HashMap;
 
-public class UnixPipe extends Pipe
+public class UnixPipe implements Transport.Connection
 {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(UnixPipe.class);
     private final SocketChannel channel;
 
-    UnixPipe(IPCClient ipcClient, HashMap<String, Callback> callbacks, String location) throws IOException
+    UnixPipe(String location) throws IOException
     {
-        super(ipcClient, callbacks);
-
         UnixDomainSocketAddress address = UnixDomainSocketAddress.of(Path.of(location));
         channel = SocketChannel.open(address);
         channel.configureBlocking(true);
     }
 
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     @Override
-    public Packet read() throws IOException, JsonIOException
+    public void readFully(byte[] b) throws IOException
     {
-        if(status==PipeStatus.DISCONNECTED)
-            throw new IOException("Disconnected!");
-
-        if(status==PipeStatus.CLOSED)
-            return new Packet(Packet.OpCode.CLOSE, null);
-
-        // Read the op and length. Both are signed ints
-        ByteBuffer header = ByteBuffer.allocate(8);
-        readFully(header);
-        header.flip();
-        int op = Integer.reverseBytes(header.getInt());
-        int length = Integer.reverseBytes(header.getInt());
-
-        ByteBuffer payload = ByteBuffer.allocate(length);
-        readFully(payload);
-        payload.flip();
-        byte[] data = new byte[length];
-        payload.get(data);
-
-        Packet.OpCode opcode = Packet.OpCode.values()[op];
-        Packet p = new Packet(opcode, JsonParser.parseString(new String(data)));
-        LOGGER.debug("Received packet: {}", p);
-        if(listener != null)
-            listener.onPacketReceived(ipcClient, p);
-        return p;
+        ByteBuffer buffer = ByteBuffer.wrap(b);
+        while(buffer.hasRemaining())
+        {
+            int read = channel.read(buffer);
+            if(read == -1)
+                throw new EOFException("Disconnected!");
+        }
     }
 
     @Override
@@ -92,22 +65,7 @@ public class UnixPipe extends Pipe
     @Override
     public void close() throws IOException
     {
-        LOGGER.debug("Closing IPC pipe...");
-        send(Packet.OpCode.CLOSE, new JsonObject(), null);
-        status = PipeStatus.CLOSED;
+        LOGGER.debug("Closing IPC socket...");
         channel.close();
     }
-
-    private void readFully(ByteBuffer buffer) throws IOException
-    {
-        while(buffer.hasRemaining())
-        {
-            int read = channel.read(buffer);
-            if(read == -1)
-            {
-                status = PipeStatus.DISCONNECTED;
-                throw new IOException("Disconnected!");
-            }
-        }
-    }
 }
@@ -16,75 +16,21 @@
 
 package com.jagrosh.discordipc.entities.pipe;
 
-import com.google.gson.JsonIOException;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
-import com.jagrosh.discordipc.IPCClient;
-import com.jagrosh.discordipc.entities.Callback;
-import com.jagrosh.discordipc.entities.Packet;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.HashMap;
 
-public class WindowsPipe extends Pipe
+public class WindowsPipe extends FileConnection
 {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(WindowsPipe.class);
-
-    private final RandomAccessFile file;
-
-    WindowsPipe(IPCClient ipcClient, HashMap<String, Callback> callbacks, String location)
+    WindowsPipe(String location) throws IOException
     {
-        super(ipcClient, callbacks);
-        try {
-            this.file = new RandomAccessFile(location, "rw");
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    @Override
-    public void write(byte[] b) throws IOException {
-        file.write(b);
-    }
-
-    @Override
-    public Packet read() throws IOException, JsonIOException {
-        while(file.length() == 0 && status == PipeStatus.CONNECTED)
-        {
-            try {
-                Thread.sleep(50);
-            } catch(InterruptedException ignored) {}
-        }
-
-        if(status==PipeStatus.DISCONNECTED)
-            throw new IOException("Disconnected!");
-
-        if(status==PipeStatus.CLOSED)
-            return new Packet(Packet.OpCode.CLOSE, null);
-
-        Packet.OpCode op = Packet.OpCode.values()[Integer.reverseBytes(file.readInt())];
-        int len = Integer.reverseBytes(file.readInt());
-        byte[] d = new byte[len];
-
-        file.readFully(d);
-        Packet p = new Packet(op, JsonParser.parseString(new String(d)));
-        LOGGER.debug("Received packet: {}", p);
-        if(listener != null)
-            listener.onPacketReceived(ipcClient, p);
-        return p;
+        this(new RandomAccessFile(location, "rw"));
     }
 
-    @Override
-    public void close() throws IOException {
-        LOGGER.debug("Closing IPC pipe...");
-        send(Packet.OpCode.CLOSE, new JsonObject(), null);
-        status = PipeStatus.CLOSED;
-        file.close();
+    private WindowsPipe(RandomAccessFile file)
+    {
+        // reads on a named pipe would block writes, so only read once data has arrived
+        super(file.getChannel(), file.getChannel(), file::length);
     }
 
 }
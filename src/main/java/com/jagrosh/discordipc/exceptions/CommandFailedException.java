@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.exceptions;
+
+/**
+ * An exception a {@link java.util.concurrent.CompletableFuture CompletableFuture}
+ * returned by an {@link com.jagrosh.discordipc.IPCClient IPCClient} completes with
+ * when Discord answers a command with an error, or the command could not be sent.
+ *
+ * @author John Grosh (john.a.grosh@gmail.com)
+ */
+public class CommandFailedException extends Exception
+{
+    private final String command;
+
+    /**
+     * Constructs a new CommandFailedException.
+     *
+     * @param command The command that failed, such as {@code GET_GUILDS}.
+     * @param message The error message.
+     */
+    public CommandFailedException(String command, String message)
+    {
+        super(command + " failed: " + message);
+        this.command = command;
+    }
+
+    /**
+     * @return The command that failed, such as {@code GET_GUILDS}.
+     */
+    public String getCommand()
+    {
+        return command;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Recorded when Discord answers a command, whether or not a
+ * {@link com.jagrosh.discordipc.entities.Callback Callback} was attached to it.
+ */
+@Name("com.jagrosh.discordipc.Callback")
+@Label("Callback Completed")
+@Description("A response from Discord to a previously sent command")
+@Category({"Discord IPC", "Callbacks"})
+@StackTrace(false)
+public class CallbackEvent extends Event
+{
+    @Label("Nonce")
+    public String nonce;
+
+    @Label("Command")
+    public String cmd;
+
+    @Label("Success")
+    public boolean success;
+
+    @Label("Latency")
+    @Description("Time between sending the command and receiving its response")
+    @Timespan(Timespan.NANOSECONDS)
+    public long latency;
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded when the connection to Discord ends, either
+ * through a CLOSE frame or because of an error.
+ */
+@Name("com.jagrosh.discordipc.Disconnect")
+@Label("Disconnect")
+@Description("The connection to Discord ended")
+@Category({"Discord IPC"})
+@StackTrace(false)
+public class DisconnectEvent extends Event
+{
+    @Label("Client ID")
+    public long clientId;
+
+    @Label("Status")
+    public String status;
+
+    @Label("Reason")
+    public String reason;
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded for the HANDSHAKE and READY exchange with a Discord client.
+ */
+@Name("com.jagrosh.discordipc.Handshake")
+@Label("Handshake")
+@Description("A HANDSHAKE sent to a Discord client and the READY it answered with")
+@Category({"Discord IPC", "Discovery"})
+@StackTrace(false)
+public class HandshakeEvent extends Event
+{
+    @Label("Client ID")
+    public long clientId;
+
+    @Label("Location")
+    public String location;
+
+    @Label("Build")
+    public String build;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded around every call into an {@link com.jagrosh.discordipc.IPCListener IPCListener}
+ * made while handling an incoming event.
+ */
+@Name("com.jagrosh.discordipc.ListenerDispatch")
+@Label("Listener Dispatch")
+@Description("Time spent in application code handling an IPC event")
+@Category({"Discord IPC", "Listeners"})
+@StackTrace(false)
+public class ListenerDispatchEvent extends Event
+{
+    @Label("Event")
+    public String event;
+}
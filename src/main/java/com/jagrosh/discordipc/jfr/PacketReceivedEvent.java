@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded for every frame read from Discord, spanning the decoding of its payload.
+ */
+@Name("com.jagrosh.discordipc.PacketReceived")
+@Label("Packet Received")
+@Description("A frame read from Discord")
+@Category({"Discord IPC", "Packets"})
+@StackTrace(false)
+public class PacketReceivedEvent extends Event
+{
+    @Label("OpCode")
+    public String opcode;
+
+    @Label("Size")
+    @DataAmount
+    public int size;
+
+    @Label("Nonce")
+    public String nonce;
+
+    @Label("Command")
+    public String cmd;
+
+    @Label("Event")
+    public String evt;
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.IPCClient.Event;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.entities.pipe.FakeDiscord;
+import com.jagrosh.discordipc.entities.pipe.LoopbackTransport;
+import com.jagrosh.discordipc.entities.pipe.PipeStatus;
+import com.jagrosh.discordipc.entities.pipe.Transport;
+import com.jagrosh.discordipc.exceptions.NoDiscordClientException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectAsyncTest
+{
+    private IPCClient client;
+
+    @AfterEach
+    void tearDown()
+    {
+        if(client != null && client.getStatus() == PipeStatus.CONNECTED)
+            client.close();
+    }
+
+    @Test
+    void queuedSendsGoOutInOrderBeforeLaterOnes() throws Exception
+    {
+        RecordingTransport transport = new RecordingTransport(new FakeDiscord());
+        client = new IPCClient(101L);
+        client.setTransport(transport);
+        List<Runnable> connector = new ArrayList<>();
+
+        CompletableFuture<IPCClient> connected = client.connectAsync(connector::add);
+        assertEquals(PipeStatus.CONNECTING, client.getStatus());
+        CompletableFuture<Void> first = new CompletableFuture<>();
+        client.sendRichPresence(presence("one"), acked(first));
+        client.subscribe(Event.ACTIVITY_JOIN);
+        client.sendRichPresence(presence("two"));
+        assertTrue(transport.sent.isEmpty());
+
+        connector.get(0).run();
+        assertSame(client, connected.get(5, TimeUnit.SECONDS));
+        client.sendRichPresence(presence("three"));
+
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("SET_ACTIVITY one", "SUBSCRIBE ACTIVITY_JOIN", "SET_ACTIVITY two", "SET_ACTIVITY three"),
+                transport.commands());
+    }
+
+    @Test
+    void sendDuringTheFlushWaitsForTheQueue() throws Exception
+    {
+        RecordingTransport transport = new RecordingTransport(new FakeDiscord());
+        client = new IPCClient(102L);
+        client.setTransport(transport);
+        List<Runnable> connector = new ArrayList<>();
+        client.connectAsync(connector::add);
+        client.sendRichPresence(presence("one"));
+        client.sendRichPresence(presence("two"));
+
+        // while the first queued presence is being written, another thread sends
+        Thread[] racer = new Thread[1];
+        boolean[] heldBack = new boolean[1];
+        transport.onWrite = command -> {
+            if(!command.equals("SET_ACTIVITY one"))
+                return;
+            racer[0] = new Thread(() -> client.sendRichPresence(presence("three")));
+            racer[0].start();
+            heldBack[0] = awaitBlocked(racer[0]);
+        };
+        connector.get(0).run();
+        racer[0].join(5000);
+
+        // held back until the queue is empty, rather than left to race the rest of it for the pipe
+        assertTrue(heldBack[0]);
+        assertEquals(List.of("SET_ACTIVITY one", "SET_ACTIVITY two", "SET_ACTIVITY three"), transport.commands());
+    }
+
+    @Test
+    void sendFromTheFlushingThreadJoinsTheQueue() throws Exception
+    {
+        RecordingTransport transport = new RecordingTransport(new FakeDiscord());
+        client = new IPCClient(106L);
+        client.setTransport(transport);
+        List<Runnable> connector = new ArrayList<>();
+        CompletableFuture<IPCClient> connected = client.connectAsync(connector::add);
+        client.sendRichPresence(presence("one"));
+        client.sendRichPresence(presence("two"));
+
+        // as a listener or callback run on the connecting thread would
+        transport.onWrite = command -> {
+            if(command.equals("SET_ACTIVITY one"))
+                client.sendRichPresence(presence("three"));
+        };
+        connector.get(0).run();
+        connected.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of("SET_ACTIVITY one", "SET_ACTIVITY two", "SET_ACTIVITY three"), transport.commands());
+    }
+
+    @Test
+    void failedConnectionFailsQueuedCallbacks() throws Exception
+    {
+        client = new IPCClient(103L);
+        client.setTransport(new RecordingTransport(null));
+        List<Runnable> connector = new ArrayList<>();
+        CompletableFuture<IPCClient> connected = client.connectAsync(connector::add);
+        CompletableFuture<Void> presence = new CompletableFuture<>();
+        client.sendRichPresence(presence("one"), acked(presence));
+
+        connector.get(0).run();
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> connected.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(NoDiscordClientException.class, ex.getCause());
+        ex = assertThrows(ExecutionException.class, () -> presence.get(5, TimeUnit.SECONDS));
+        assertTrue(ex.getCause().getMessage().startsWith("Failed to connect"));
+
+        // no longer connecting, so sends throw rather than queue
+        assertThrows(IllegalStateException.class, () -> client.sendRichPresence(presence("two")));
+    }
+
+    @Test
+    void onlyOneConnectionAttemptAtATime()
+    {
+        client = new IPCClient(104L);
+        client.setTransport(new RecordingTransport(new FakeDiscord()));
+        client.connectAsync(task -> {});
+        assertThrows(IllegalStateException.class, () -> client.connectAsync(task -> {}));
+        assertThrows(IllegalStateException.class, () -> client.connect());
+    }
+
+    @Test
+    void rejectedExecutionLeavesTheClientFreeToConnect() throws Exception
+    {
+        client = new IPCClient(105L);
+        client.setTransport(new RecordingTransport(new FakeDiscord()));
+        assertThrows(IllegalStateException.class, () -> client.connectAsync(task -> {
+            throw new IllegalStateException("Shut down");
+        }));
+        client.connect();
+        assertEquals(PipeStatus.CONNECTED, client.getStatus());
+    }
+
+    private static RichPresence presence(String state)
+    {
+        return new RichPresence.Builder().setState(state).build();
+    }
+
+    private static Callback acked(CompletableFuture<Void> future)
+    {
+        return new Callback(p -> future.complete(null), m -> future.completeExceptionally(new IOException(m)));
+    }
+
+    /**
+     * @return Whether the thread ends up blocked on a monitor, rather than finishing or timing out.
+     */
+    private static boolean awaitBlocked(Thread thread)
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(thread.isAlive() && System.nanoTime() < deadline)
+        {
+            if(thread.getState() == Thread.State.BLOCKED)
+                return true;
+            Thread.onSpinWait();
+        }
+        return false;
+    }
+
+    /**
+     * Reaches a {@link FakeDiscord} over a {@link LoopbackTransport}, noting every command written.
+     */
+    private static final class RecordingTransport implements Transport
+    {
+        private final Transport loopback;
+        private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        private volatile Consumer<String> onWrite = command -> {};
+
+        private RecordingTransport(FakeDiscord discord)
+        {
+            this.loopback = discord == null ? null : new LoopbackTransport(discord);
+        }
+
+        private List<String> commands()
+        {
+            synchronized(sent)
+            {
+                List<String> commands = new ArrayList<>();
+                for(String command : sent)
+                    if(command.startsWith("SET_ACTIVITY") || command.startsWith("SUBSCRIBE"))
+                        commands.add(command);
+                return commands;
+            }
+        }
+
+        @Override
+        public boolean isSupported()
+        {
+            return true;
+        }
+
+        @Override
+        public List<String> getLocations()
+        {
+            return loopback == null ? Collections.emptyList() : loopback.getLocations();
+        }
+
+        @Override
+        public Connection connect(String location) throws IOException
+        {
+            Connection connection = loopback.connect(location);
+            return new Connection()
+            {
+                @Override
+                public void readFully(byte[] b) throws IOException
+                {
+                    connection.readFully(b);
+                }
+
+                @Override
+                public void write(byte[] b) throws IOException
+                {
+                    ByteBuffer frames = ByteBuffer.wrap(b);
+                    while(frames.hasRemaining())
+                    {
+                        frames.getInt();
+                        byte[] payload = new byte[Integer.reverseBytes(frames.getInt())];
+                        frames.get(payload);
+                        String command = describe(JsonParser.parseString(new String(payload, StandardCharsets.UTF_8)).getAsJsonObject());
+                        sent.add(command);
+                        onWrite.accept(command);
+                    }
+                    connection.write(b);
+                }
+
+                @Override
+                public void close() throws IOException
+                {
+                    connection.close();
+                }
+            };
+        }
+
+        private static String describe(JsonObject json)
+        {
+            String cmd = Utils.getJsonStringOrDefault(json, "cmd", "");
+            if("SUBSCRIBE".equals(cmd))
+                return cmd + ' ' + Utils.getJsonStringOrDefault(json, "evt", "");
+            if("SET_ACTIVITY".equals(cmd))
+            {
+                JsonObject activity = json.getAsJsonObject("args").getAsJsonObject("activity");
+                return cmd + ' ' + (activity == null ? null : Utils.getJsonStringOrDefault(activity, "state", ""));
+            }
+            return cmd;
+        }
+    }
+}
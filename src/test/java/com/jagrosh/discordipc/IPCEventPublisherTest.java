@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient.Event;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.pipe.FakeDiscord;
+import com.jagrosh.discordipc.entities.pipe.LoopbackTransport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IPCEventPublisherTest
+{
+    private final FakeDiscord discord = new FakeDiscord();
+    private final IPCClient client = new IPCClient(201L);
+
+    @AfterEach
+    void tearDown()
+    {
+        client.close();
+    }
+
+    @Test
+    void setListenerKeepsPublisherSubscribers() throws Exception
+    {
+        client.setTransport(new LoopbackTransport(discord));
+        Collector collector = new Collector();
+        client.getEventPublisher().subscribe(collector);
+        client.connect();
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        client.subscribe(Event.ACTIVITY_JOIN, new Callback(p -> subscribed.complete(null),
+                m -> subscribed.completeExceptionally(new IOException(m))));
+        subscribed.get(5, TimeUnit.SECONDS);
+
+        client.setListener(new IPCListener() {});
+        client.setListener(null);
+        assertEquals(1, client.getEventPublisher().getSubscriberCount());
+
+        JsonObject data = new JsonObject();
+        data.addProperty("secret", "s3cret");
+        discord.dispatch("ACTIVITY_JOIN", data);
+
+        assertEquals(new IPCEvent.Join(client, "s3cret"), collector.next(IPCEvent.Join.class));
+        assertTrue(collector.errors.isEmpty());
+    }
+
+    /**
+     * Requests every event up front and keeps them in order.
+     */
+    private static final class Collector implements Flow.Subscriber<IPCEvent>
+    {
+        private final BlockingQueue<IPCEvent> events = new LinkedBlockingQueue<>();
+        private final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(IPCEvent item)
+        {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable)
+        {
+            errors.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {}
+
+        private <T extends IPCEvent> T next(Class<T> type) throws InterruptedException
+        {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            for(IPCEvent event; (event = events.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null; )
+                if(type.isInstance(event))
+                    return type.cast(event);
+            return fail("No " + type.getSimpleName() + " event published");
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient.DropPolicy;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JoinRequestGateTest
+{
+    private IPCMetrics metrics;
+    private JoinRequestGate gate;
+
+    @BeforeEach
+    void setUp()
+    {
+        metrics = new IPCMetrics(1L, () -> 0);
+        gate = new JoinRequestGate(metrics);
+    }
+
+    @Test
+    void repeatedRequestWithinTheWindowIsDropped()
+    {
+        assertTrue(gate.offer(request(1, "alice", "a1")));
+        assertFalse(gate.offer(request(1, "alice", "a2")));
+        assertEquals(1, metrics.getDuplicateJoinRequests());
+
+        assertEquals("a1", gate.poll().secret);
+        assertNull(gate.poll());
+    }
+
+    @Test
+    void repeatedRequestAfterTheWindowIsQueued()
+    {
+        gate.setLimits(0, JoinRequestGate.DEFAULT_MAX_PENDING, DropPolicy.DROP_OLDEST);
+        gate.offer(request(1, "alice", "a1"));
+        gate.offer(request(1, "alice", "a2"));
+        assertEquals(0, metrics.getDuplicateJoinRequests());
+        assertEquals(List.of("a1", "a2"), drain());
+    }
+
+    @Test
+    void dropOldestKeepsTheFreshestRequests()
+    {
+        gate.setLimits(TimeUnit.SECONDS.toNanos(10), 2, DropPolicy.DROP_OLDEST);
+        for(int i = 1; i <= 4; i++)
+            gate.offer(request(i, "user" + i, "s" + i));
+        assertEquals(2, metrics.getDroppedJoinRequests());
+        assertEquals(List.of("s3", "s4"), drain());
+    }
+
+    @Test
+    void dropNewestKeepsTheRequestsAlreadyWaiting()
+    {
+        gate.setLimits(TimeUnit.SECONDS.toNanos(10), 2, DropPolicy.DROP_NEWEST);
+        for(int i = 1; i <= 4; i++)
+            gate.offer(request(i, "user" + i, "s" + i));
+        assertEquals(2, metrics.getDroppedJoinRequests());
+        assertEquals(List.of("s1", "s2"), drain());
+    }
+
+    @Test
+    void onlyTheFirstOfferAsksForDraining()
+    {
+        assertTrue(gate.offer(request(1, "alice", "a")));
+        assertFalse(gate.offer(request(2, "bob", "b")));
+        drain();
+        // once drained, the next request has to start draining again
+        assertTrue(gate.offer(request(3, "carol", "c")));
+    }
+
+    @Test
+    void requesterIsReusedUntilTheirProfileChanges()
+    {
+        gate.setLimits(0, JoinRequestGate.DEFAULT_MAX_PENDING, DropPolicy.DROP_OLDEST);
+        gate.offer(request(1, "alice", "a1"));
+        gate.offer(request(1, "alice", "a2"));
+        gate.offer(request(1, "alicia", "a3"));
+        JoinRequestGate.Request first = gate.poll();
+        JoinRequestGate.Request second = gate.poll();
+        JoinRequestGate.Request third = gate.poll();
+
+        assertSame(first.user, second.user);
+        assertNotSame(second.user, third.user);
+        assertEquals("alicia", third.user.getName());
+        assertEquals(1L, third.user.getIdLong());
+    }
+
+    @Test
+    void shrinkingTheQueueDropsTheOldest()
+    {
+        for(int i = 1; i <= 3; i++)
+            gate.offer(request(i, "user" + i, "s" + i));
+        gate.setLimits(JoinRequestGate.DEFAULT_WINDOW_NANOS, 1, DropPolicy.DROP_NEWEST);
+        assertEquals(2, metrics.getDroppedJoinRequests());
+        assertEquals(List.of("s3"), drain());
+    }
+
+    private List<String> drain()
+    {
+        List<String> secrets = new ArrayList<>();
+        JoinRequestGate.Request request;
+        while((request = gate.poll()) != null)
+            secrets.add(request.secret);
+        return secrets;
+    }
+
+    private static JsonObject request(long id, String name, String secret)
+    {
+        JsonObject user = new JsonObject();
+        user.addProperty("id", Long.toString(id));
+        user.addProperty("username", name);
+        user.addProperty("discriminator", "0001");
+        user.addProperty("avatar", "avatar");
+        JsonObject data = new JsonObject();
+        data.add("user", user);
+        data.addProperty("secret", secret);
+        return data;
+    }
+}
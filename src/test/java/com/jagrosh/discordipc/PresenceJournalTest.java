@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient.Event;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.EnumSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresenceJournalTest
+{
+    // sequence numbers start from 1 and pick the slot by parity, so the second write lands in slot 0
+    private static final int NEWEST_SLOT = 0;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void stateSurvivesReopening() throws IOException
+    {
+        Path path = dir.resolve("presence.journal");
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            assertEquals(JsonNull.INSTANCE, journal.getActivity());
+            journal.recordActivity(activity("Playing", 1_700_000_000L));
+            journal.recordSubscriptions(EnumSet.of(Event.ACTIVITY_JOIN, Event.ACTIVITY_JOIN_REQUEST));
+        }
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            assertEquals(activity("Playing", 1_700_000_000L), journal.getActivity());
+            assertEquals(EnumSet.of(Event.ACTIVITY_JOIN, Event.ACTIVITY_JOIN_REQUEST), journal.getSubscriptions());
+            assertEquals(OffsetDateTime.of(2023, 11, 14, 22, 13, 20, 0, ZoneOffset.UTC), journal.getStartTimestamp());
+        }
+    }
+
+    @Test
+    void tornPayloadFallsBackToThePreviousState() throws IOException
+    {
+        Path path = dir.resolve("presence.journal");
+        writeTwoStates(path);
+        // flip a byte of the newest payload, as a crash part way through copying it would
+        corrupt(path, NEWEST_SLOT * PresenceJournal.SLOT_SIZE + PresenceJournal.HEADER_SIZE + 3);
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            assertEquals(activity("First", 1L), journal.getActivity());
+        }
+    }
+
+    @Test
+    void unstampedSlotFallsBackToThePreviousState() throws IOException
+    {
+        Path path = dir.resolve("presence.journal");
+        writeTwoStates(path);
+        // the magic is stamped last, so a write torn before it leaves it cleared
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE))
+        {
+            channel.write(ByteBuffer.allocate(Integer.BYTES), (long) NEWEST_SLOT * PresenceJournal.SLOT_SIZE);
+        }
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            assertEquals(activity("First", 1L), journal.getActivity());
+            // and carries on past the torn slot rather than over the good one
+            journal.recordActivity(activity("Third", 3L));
+        }
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            assertEquals(activity("Third", 3L), journal.getActivity());
+        }
+    }
+
+    @Test
+    void stateTooLargeIsNotJournaled() throws IOException
+    {
+        Path path = dir.resolve("presence.journal");
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            journal.recordActivity(activity("Small", 1L));
+            JsonObject huge = activity("x".repeat(PresenceJournal.SLOT_SIZE), 2L);
+            journal.recordActivity(huge);
+        }
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            assertEquals(activity("Small", 1L), journal.getActivity());
+        }
+    }
+
+    private static void writeTwoStates(Path path) throws IOException
+    {
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            journal.recordActivity(activity("First", 1L));
+            journal.recordActivity(activity("Second", 2L));
+        }
+        try(PresenceJournal journal = new PresenceJournal(path))
+        {
+            assertEquals(activity("Second", 2L), journal.getActivity());
+        }
+    }
+
+    private static void corrupt(Path path, long position) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) (b.get(0) ^ 0xFF));
+            channel.write(b.rewind(), position);
+        }
+    }
+
+    private static JsonObject activity(String state, long start)
+    {
+        JsonObject timestamps = new JsonObject();
+        timestamps.addProperty("start", start);
+        JsonObject activity = new JsonObject();
+        activity.addProperty("state", state);
+        activity.add("timestamps", timestamps);
+        return activity;
+    }
+}
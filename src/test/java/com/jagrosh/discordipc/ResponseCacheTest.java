@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.exceptions.CommandFailedException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseCacheTest
+{
+    private final List<Callback> sent = new ArrayList<>();
+    private long now;
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setUp()
+    {
+        sent.clear();
+        now = 0;
+        cache = new ResponseCache((cmd, args, callback) -> sent.add(callback), () -> now);
+    }
+
+    @Test
+    void responseIsReusedUntilItExpires() throws Exception
+    {
+        cache.setLimits(TimeUnit.MILLISECONDS.toNanos(50), ResponseCache.DEFAULT_MAX_ENTRIES);
+        CompletableFuture<JsonElement> first = cache.get("GET_GUILDS", new JsonObject());
+        answer(0, "guilds", 1);
+        assertEquals(data("guilds", 1), first.get());
+
+        now += TimeUnit.MILLISECONDS.toNanos(49);
+        assertEquals(data("guilds", 1), cache.get("GET_GUILDS", new JsonObject()).get());
+        assertEquals(1, sent.size());
+
+        now += TimeUnit.MILLISECONDS.toNanos(1);
+        cache.get("GET_GUILDS", new JsonObject());
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    void identicalRequestsInFlightShareOneRoundTrip() throws Exception
+    {
+        cache.setLimits(0, 0);
+        CompletableFuture<JsonElement> first = cache.get("GET_GUILD", args("1"));
+        CompletableFuture<JsonElement> second = cache.get("GET_GUILD", args("1"));
+        CompletableFuture<JsonElement> other = cache.get("GET_GUILD", args("2"));
+        assertEquals(2, sent.size());
+
+        answer(0, "guild", 1);
+        assertEquals(data("guild", 1), first.get());
+        assertEquals(data("guild", 1), second.get());
+        assertFalse(other.isDone());
+
+        // caching disabled, so the next request goes out again
+        cache.get("GET_GUILD", args("1"));
+        assertEquals(3, sent.size());
+    }
+
+    @Test
+    void callersGetTheirOwnCopy() throws Exception
+    {
+        CompletableFuture<JsonElement> first = cache.get("GET_GUILDS", new JsonObject());
+        answer(0, "guilds", 1);
+        first.get().getAsJsonObject().addProperty("changed", true);
+        assertEquals(data("guilds", 1), cache.get("GET_GUILDS", new JsonObject()).get());
+    }
+
+    @Test
+    void clearDropsCachedAndAwaitedResponses() throws Exception
+    {
+        cache.get("GET_GUILDS", new JsonObject());
+        answer(0, "guilds", 1);
+        CompletableFuture<JsonElement> awaited = cache.get("GET_CHANNELS", new JsonObject());
+
+        cache.clear();
+        cache.get("GET_GUILDS", new JsonObject());
+        assertEquals(3, sent.size());
+
+        // an answer to a request made before clearing is not kept
+        answer(1, "channels", 1);
+        assertEquals(data("channels", 1), awaited.get());
+        cache.get("GET_CHANNELS", new JsonObject());
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() throws Exception
+    {
+        cache.setLimits(ResponseCache.DEFAULT_TTL_NANOS, 2);
+        for(int i = 0; i < 3; i++)
+        {
+            cache.get("GET_GUILD", args(Integer.toString(i)));
+            answer(i, "guild", i);
+        }
+        cache.get("GET_GUILD", args("2"));
+        cache.get("GET_GUILD", args("1"));
+        assertEquals(3, sent.size());
+        cache.get("GET_GUILD", args("0"));
+        assertEquals(4, sent.size());
+    }
+
+    @Test
+    void failureIsNotCached()
+    {
+        CompletableFuture<JsonElement> failed = cache.get("GET_GUILDS", new JsonObject());
+        sent.get(0).fail("Not authenticated");
+        ExecutionException ex = assertThrows(ExecutionException.class, failed::get);
+        assertInstanceOf(CommandFailedException.class, ex.getCause());
+
+        cache.get("GET_GUILDS", new JsonObject());
+        assertEquals(2, sent.size());
+    }
+
+    private void answer(int index, String key, int value)
+    {
+        JsonObject json = new JsonObject();
+        json.add("data", data(key, value));
+        sent.get(index).succeed(new Packet(Packet.OpCode.FRAME, json));
+    }
+
+    private static JsonObject data(String key, int value)
+    {
+        JsonObject data = new JsonObject();
+        data.addProperty(key, value);
+        return data;
+    }
+
+    private static JsonObject args(String id)
+    {
+        JsonObject args = new JsonObject();
+        args.addProperty("guild_id", id);
+        return args;
+    }
+}
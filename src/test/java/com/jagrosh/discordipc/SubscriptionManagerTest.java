@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient.Event;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SubscriptionManagerTest
+{
+    private final List<Sent> sent = new ArrayList<>();
+    private int changes;
+    private SubscriptionManager subscriptions;
+
+    @BeforeEach
+    void setUp()
+    {
+        sent.clear();
+        changes = 0;
+        subscriptions = new SubscriptionManager((cmd, events, callbacks) -> {
+            for(int i = 0; i < events.size(); i++)
+                sent.add(new Sent(cmd, events.get(i), callbacks.get(i)));
+        }, () -> changes++);
+    }
+
+    @Test
+    void onlyFirstAndLastReferenceReachDiscord()
+    {
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, null);
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, null);
+        assertEquals(1, sent.size());
+        assertEquals("SUBSCRIBE", sent.get(0).cmd);
+        sent.get(0).callback.succeed(ack("SUBSCRIBE"));
+
+        subscriptions.unsubscribe(Event.ACTIVITY_JOIN, null);
+        assertEquals(1, sent.size());
+        assertEquals(EnumSet.of(Event.ACTIVITY_JOIN), subscriptions.getActive());
+
+        subscriptions.unsubscribe(Event.ACTIVITY_JOIN, null);
+        assertEquals(2, sent.size());
+        assertEquals("UNSUBSCRIBE", sent.get(1).cmd);
+        assertTrue(subscriptions.getActive().isEmpty());
+        assertThrows(IllegalStateException.class, () -> subscriptions.unsubscribe(Event.ACTIVITY_JOIN, null));
+    }
+
+    @Test
+    void referencesTakenWhileAwaitingShareTheResponse()
+    {
+        List<Packet> first = new ArrayList<>();
+        List<Packet> second = new ArrayList<>();
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, new Callback(first::add));
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, new Callback(second::add));
+        assertEquals(1, sent.size());
+        assertTrue(second.isEmpty());
+
+        Packet ack = ack("SUBSCRIBE");
+        sent.get(0).callback.succeed(ack);
+        assertEquals(Collections.singletonList(ack), first);
+        assertEquals(Collections.singletonList(ack), second);
+
+        // taken after the response arrived, still answered with it
+        List<Packet> third = new ArrayList<>();
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, new Callback(third::add));
+        assertEquals(Collections.singletonList(ack), third);
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    void rejectedSubscriptionKeepsReferencesAndIsRetried()
+    {
+        List<String> failures = new ArrayList<>();
+        subscriptions.subscribe(Event.ACTIVITY_SPECTATE, new Callback(p -> fail(), failures::add));
+        sent.get(0).callback.fail("No scope");
+        assertEquals(Collections.singletonList("No scope"), failures);
+        assertTrue(subscriptions.getActive().isEmpty());
+
+        // another reference retries, rather than sharing the rejection
+        subscriptions.subscribe(Event.ACTIVITY_SPECTATE, null);
+        assertEquals(2, sent.size());
+        assertEquals("SUBSCRIBE", sent.get(1).cmd);
+        sent.get(1).callback.fail("No scope");
+
+        // Discord never took it, so releasing sends nothing
+        subscriptions.unsubscribe(Event.ACTIVITY_SPECTATE, null);
+        subscriptions.unsubscribe(Event.ACTIVITY_SPECTATE, null);
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    void restoreResubscribesEveryHeldEvent()
+    {
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, null);
+        subscriptions.subscribe(Event.ACTIVITY_SPECTATE, null);
+        subscriptions.unsubscribe(Event.ACTIVITY_SPECTATE, null);
+        sent.clear();
+
+        subscriptions.restore();
+        assertEquals(1, sent.size());
+        assertEquals(Event.ACTIVITY_JOIN, sent.get(0).event);
+    }
+
+    @Test
+    void peerReferencesNeitherShowNorUndoTheOwners()
+    {
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, null);
+        subscriptions.subscribePeer(Event.ACTIVITY_JOIN, null);
+        subscriptions.subscribePeer(Event.ACTIVITY_JOIN_REQUEST, null);
+        assertEquals(2, sent.size());
+        assertTrue(subscriptions.isOwned(Event.ACTIVITY_JOIN));
+        assertFalse(subscriptions.isOwned(Event.ACTIVITY_JOIN_REQUEST));
+
+        // a peer releasing its reference leaves the owner's subscribed
+        subscriptions.unsubscribePeer(Event.ACTIVITY_JOIN, null);
+        assertEquals(2, sent.size());
+        assertTrue(subscriptions.isOwned(Event.ACTIVITY_JOIN));
+        // and the owner cannot release a reference only a peer holds
+        assertThrows(IllegalStateException.class, () -> subscriptions.unsubscribe(Event.ACTIVITY_JOIN_REQUEST, null));
+    }
+
+    @Test
+    void changesAreReportedOnlyOnceAnswered()
+    {
+        subscriptions.subscribe(Event.ACTIVITY_JOIN, null);
+        assertEquals(0, changes);
+        sent.get(0).callback.succeed(ack("SUBSCRIBE"));
+        assertEquals(1, changes);
+
+        subscriptions.subscribe(Event.ACTIVITY_SPECTATE, null);
+        sent.get(1).callback.fail("No scope");
+        assertEquals(2, changes);
+    }
+
+    private static Packet ack(String cmd)
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("cmd", cmd);
+        return new Packet(Packet.OpCode.FRAME, json);
+    }
+
+    private static final class Sent
+    {
+        private final String cmd;
+        private final Event event;
+        private final Callback callback;
+
+        private Sent(String cmd, Event event, Callback callback)
+        {
+            this.cmd = cmd;
+            this.event = event;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.Utils;
+import com.jagrosh.discordipc.entities.DiscordBuild;
+import com.jagrosh.discordipc.entities.Packet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A stand-in for the Discord client, speaking its IPC protocol to any number
+ * of {@link Session Sessions}.<p>
+ *
+ * It answers handshakes with a {@code READY}, PINGs with PONGs, and commands
+ * with a response carrying the same nonce. {@code SET_ACTIVITY}, {@code SUBSCRIBE},
+ * {@code UNSUBSCRIBE} and replies to join requests are handled out of the box, other
+ * commands can be given a handler with {@link #setCommandHandler(String, Function)},
+ * and anything else is answered with an {@code ERROR}. Events sent with
+ * {@link #dispatch(String, JsonObject)} only reach the sessions subscribed to them.<p>
+ *
+ * Frames are handled on the thread that delivers them, so a FakeDiscord adds
+ * no threads of its own. Connect to it in-process with a {@link LoopbackTransport},
+ * or serve it over any other channel through {@link #open(Client)}.
+ */
+public class FakeDiscord
+{
+    private final DiscordBuild build;
+    private final Set<Session> sessions = new CopyOnWriteArraySet<>();
+    private final Map<String, Function<JsonObject, JsonElement>> handlers = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> commandCounts = new ConcurrentHashMap<>();
+    private volatile JsonElement activity = JsonNull.INSTANCE;
+
+    /**
+     * Constructs a FakeDiscord reporting itself as {@link DiscordBuild#STABLE}.
+     */
+    public FakeDiscord()
+    {
+        this(DiscordBuild.STABLE);
+    }
+
+    /**
+     * Constructs a FakeDiscord reporting itself as the given build.
+     *
+     * @param build The build to report in the {@code READY}.
+     */
+    public FakeDiscord(DiscordBuild build)
+    {
+        this.build = build;
+        handlers.put("SET_ACTIVITY", args -> {
+            activity = args.has("activity") ? args.get("activity") : JsonNull.INSTANCE;
+            return activity;
+        });
+        handlers.put("SEND_ACTIVITY_JOIN_INVITE", args -> JsonNull.INSTANCE);
+        handlers.put("CLOSE_ACTIVITY_REQUEST", args -> JsonNull.INSTANCE);
+    }
+
+    /**
+     * Answers a command with the result of a handler instead of an {@code ERROR}.
+     *
+     * @param cmd The command to handle.
+     * @param handler Turns the command's {@code args} into the response's {@code data}.
+     */
+    public void setCommandHandler(String cmd, Function<JsonObject, JsonElement> handler)
+    {
+        handlers.put(cmd, handler);
+    }
+
+    /**
+     * Sends an event to every session subscribed to it.
+     *
+     * @param evt The event name, such as {@code ACTIVITY_JOIN}.
+     * @param data The event's data.
+     */
+    public void dispatch(String evt, JsonObject data)
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("cmd", "DISPATCH");
+        json.add("data", data);
+        json.addProperty("evt", evt);
+        json.add("nonce", JsonNull.INSTANCE);
+        byte[] frame = new Packet(Packet.OpCode.FRAME, json).toBytes();
+        for(Session session : sessions)
+            if(session.subscriptions.contains(evt))
+                session.client.deliver(frame);
+    }
+
+    /**
+     * Ends every session, as though Discord had quit.
+     */
+    public void disconnectAll()
+    {
+        for(Session session : sessions)
+            session.close();
+    }
+
+    /**
+     * @return The number of sessions currently open.
+     */
+    public int getSessionCount()
+    {
+        return sessions.size();
+    }
+
+    /**
+     * @param cmd A command name.
+     *
+     * @return How many times the command has been received.
+     */
+    public long getCommandCount(String cmd)
+    {
+        LongAdder count = commandCounts.get(cmd);
+        return count == null ? 0 : count.sum();
+    }
+
+    /**
+     * @return The activity most recently set with {@code SET_ACTIVITY}.
+     */
+    public JsonElement getActivity()
+    {
+        return activity;
+    }
+
+    /**
+     * Starts a session for a newly connected client.
+     *
+     * @param client Where the session sends its frames.
+     *
+     * @return The session, which the client's frames are to be passed to.
+     */
+    public Session open(Client client)
+    {
+        Session session = new Session(client);
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Builds the {@code READY} sent in response to a handshake.
+     *
+     * @return The READY payload.
+     */
+    protected JsonObject ready()
+    {
+        JsonObject config = new JsonObject();
+        config.addProperty("cdn_host", "cdn.discordapp.com");
+        config.addProperty("api_endpoint", build.getEndpoint());
+        config.addProperty("environment", "production");
+
+        JsonObject user = new JsonObject();
+        user.addProperty("id", "1");
+        user.addProperty("username", "fake");
+        user.addProperty("discriminator", "0000");
+        user.add("avatar", JsonNull.INSTANCE);
+
+        JsonObject data = new JsonObject();
+        data.addProperty("v", 1);
+        data.add("config", config);
+        data.add("user", user);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("cmd", "DISPATCH");
+        json.add("data", data);
+        json.addProperty("evt", "READY");
+        json.add("nonce", JsonNull.INSTANCE);
+        return json;
+    }
+
+    /**
+     * The client end of a {@link Session}.
+     */
+    public interface Client
+    {
+        /**
+         * Sends a frame to the client.
+         *
+         * @param frame A complete frame, header included.
+         */
+        void deliver(byte[] frame);
+
+        /**
+         * Ends the connection to the client.
+         */
+        void disconnect();
+    }
+
+    /**
+     * A single client's connection to a {@link FakeDiscord}.
+     */
+    public final class Session
+    {
+        private final Client client;
+        private final Set<String> subscriptions = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        private ByteBuffer pending = ByteBuffer.allocate(0);
+        private boolean handshaken = false;
+        private volatile boolean open = true;
+
+        private Session(Client client)
+        {
+            this.client = client;
+        }
+
+        /**
+         * Handles bytes written by the client. Frames may be split or
+         * batched in any way.
+         *
+         * @param bytes An array holding the bytes.
+         * @param offset Where the bytes start in the array.
+         * @param length The number of bytes.
+         */
+        public synchronized void receive(byte[] bytes, int offset, int length)
+        {
+            if(!open)
+                return;
+            ByteBuffer buffer = ByteBuffer.allocate(pending.remaining() + length);
+            buffer.put(pending).put(bytes, offset, length).flip();
+            while(open && buffer.remaining() >= 2 * Integer.BYTES)
+            {
+                int op = Integer.reverseBytes(buffer.getInt(buffer.position()));
+                int size = Integer.reverseBytes(buffer.getInt(buffer.position() + Integer.BYTES));
+                if(buffer.remaining() < 2 * Integer.BYTES + size)
+                    break;
+                buffer.position(buffer.position() + 2 * Integer.BYTES);
+                byte[] payload = new byte[size];
+                buffer.get(payload);
+                handle(op, payload);
+            }
+            pending = buffer;
+        }
+
+        /**
+         * Ends this session.
+         */
+        public void close()
+        {
+            if(!open)
+                return;
+            open = false;
+            sessions.remove(this);
+            client.disconnect();
+        }
+
+        /**
+         * @return Whether this session is still open.
+         */
+        public boolean isOpen()
+        {
+            return open;
+        }
+
+        private void handle(int op, byte[] payload)
+        {
+            if(op < 0 || op >= Packet.OpCode.values().length)
+            {
+                close();
+                return;
+            }
+            JsonElement json = JsonParser.parseString(new String(payload, StandardCharsets.UTF_8));
+            switch(Packet.OpCode.values()[op])
+            {
+                case HANDSHAKE:
+                    if(handshaken || Utils.getJsonStringOrDefault(json.getAsJsonObject(), "client_id", null) == null)
+                    {
+                        JsonObject error = new JsonObject();
+                        error.addProperty("code", 4000);
+                        error.addProperty("message", "Invalid Client ID");
+                        send(Packet.OpCode.CLOSE, error);
+                        close();
+                        return;
+                    }
+                    handshaken = true;
+                    send(Packet.OpCode.FRAME, ready());
+                    break;
+
+                case FRAME:
+                    command(json.getAsJsonObject());
+                    break;
+
+                case PING:
+                    send(Packet.OpCode.PONG, json);
+                    break;
+
+                case CLOSE:
+                    close();
+                    break;
+
+                default:
+                    break;
+            }
+        }
+
+        private void command(JsonObject json)
+        {
+            String cmd = Utils.getJsonStringOrDefault(json, "cmd", "");
+            commandCounts.computeIfAbsent(cmd, c -> new LongAdder()).increment();
+            JsonObject args = json.has("args") && json.get("args").isJsonObject() ? json.getAsJsonObject("args") : new JsonObject();
+            String evt = Utils.getJsonStringOrDefault(json, "evt", null);
+
+            JsonObject response = new JsonObject();
+            response.addProperty("cmd", cmd);
+            response.add("evt", JsonNull.INSTANCE);
+            response.add("nonce", json.has("nonce") ? json.get("nonce") : JsonNull.INSTANCE);
+            Function<JsonObject, JsonElement> handler = handlers.get(cmd);
+            if(("SUBSCRIBE".equals(cmd) || "UNSUBSCRIBE".equals(cmd)) && evt != null)
+            {
+                if("SUBSCRIBE".equals(cmd))
+                    subscriptions.add(evt);
+                else
+                    subscriptions.remove(evt);
+                JsonObject data = new JsonObject();
+                data.addProperty("evt", evt);
+                response.add("data", data);
+            }
+            else if(handler != null)
+            {
+                JsonElement data = handler.apply(args);
+                response.add("data", data == null ? JsonNull.INSTANCE : data);
+            }
+            else
+            {
+                JsonObject error = new JsonObject();
+                error.addProperty("code", 4000);
+                error.addProperty("message", "Unknown command: " + cmd);
+                response.add("data", error);
+                response.addProperty("evt", "ERROR");
+            }
+            send(Packet.OpCode.FRAME, response);
+        }
+
+        private void send(Packet.OpCode op, JsonElement json)
+        {
+            client.deliver(new Packet(op, json).toBytes());
+        }
+    }
+}
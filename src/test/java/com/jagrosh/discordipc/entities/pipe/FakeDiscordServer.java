@@ -0,0 +1,424 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.entities.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a {@link FakeDiscord} over a Unix domain socket, as the real Discord
+ * client does, and injects faults into the connections on demand.<p>
+ *
+ * It is also the {@link Transport} to reach it with, so an
+ * {@link IPCClient} talks to it through a real socket:
+ * <pre>{@code
+ * FakeDiscordServer server = new FakeDiscordServer(new FakeDiscord(), socketPath);
+ * server.start();
+ * client.setTransport(server);
+ * client.connect();
+ *
+ * server.setDropAcks(true);   // commands go unanswered
+ * server.stop();              // Discord quits
+ * server.start();             // and comes back
+ * }</pre>
+ * Faults set with a setter last until they are set back, while the others
+ * act once on the connections open at the time. Each connection is read on a
+ * thread of its own, and delayed responses are sent from one more.
+ *
+ * @see ReconnectBenchmark
+ */
+public final class FakeDiscordServer implements Transport, Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(FakeDiscordServer.class);
+
+    private final FakeDiscord discord;
+    private final Path socket;
+    private final Set<SocketClient> clients = new CopyOnWriteArraySet<>();
+    private final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "FakeDiscordServer Delayer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private ServerSocketChannel server = null;
+    private volatile long ackDelayNanos = 0;
+    private volatile boolean dropAcks = false;
+    private volatile boolean refuseHandshakes = false;
+    private volatile boolean stallReads = false;
+    private final Object stall = new Object();
+
+    /**
+     * Constructs a FakeDiscordServer, which listens once {@link #start() started}.
+     *
+     * @param discord The FakeDiscord to serve.
+     * @param socket Where to create the socket.
+     */
+    public FakeDiscordServer(FakeDiscord discord, Path socket)
+    {
+        this.discord = discord;
+        this.socket = socket;
+    }
+
+    /**
+     * @return The FakeDiscord being served.
+     */
+    public FakeDiscord getDiscord()
+    {
+        return discord;
+    }
+
+    /**
+     * Starts listening, as though Discord had been started.
+     * Does nothing if already listening.
+     *
+     * @throws IOException If the socket cannot be created.
+     */
+    public synchronized void start() throws IOException
+    {
+        if(server != null)
+            return;
+        Files.deleteIfExists(socket);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(socket));
+        server = channel;
+        Thread acceptor = new Thread(() -> accept(channel), "FakeDiscordServer Acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops listening and drops every connection without a {@link Packet.OpCode#CLOSE},
+     * as though Discord had quit. Does nothing if not listening.
+     */
+    public synchronized void stop()
+    {
+        if(server == null)
+            return;
+        try
+        {
+            server.close();
+            Files.deleteIfExists(socket);
+        }
+        catch(IOException ex)
+        {
+            LOGGER.debug("Failed to remove FakeDiscordServer socket", ex);
+        }
+        server = null;
+        dropConnections();
+    }
+
+    /**
+     * @return Whether this server is listening.
+     */
+    public synchronized boolean isRunning()
+    {
+        return server != null;
+    }
+
+    /**
+     * @return The number of connections currently open.
+     */
+    public int getConnectionCount()
+    {
+        return clients.size();
+    }
+
+    /**
+     * Delays every response to a command, on every connection.
+     *
+     * @param delay How long to hold each response, or {@code 0} to send them straight away.
+     * @param unit The {@link TimeUnit} of the delay.
+     */
+    public void setAckDelay(long delay, TimeUnit unit)
+    {
+        ackDelayNanos = Math.max(0, unit.toNanos(delay));
+    }
+
+    /**
+     * Sets whether responses to commands are thrown away instead of sent.
+     *
+     * @param dropAcks Whether to drop responses.
+     */
+    public void setDropAcks(boolean dropAcks)
+    {
+        this.dropAcks = dropAcks;
+    }
+
+    /**
+     * Sets whether handshakes are answered with a {@link Packet.OpCode#CLOSE}
+     * instead of a {@code READY}.
+     *
+     * @param refuseHandshakes Whether to refuse handshakes.
+     */
+    public void setRefuseHandshakes(boolean refuseHandshakes)
+    {
+        this.refuseHandshakes = refuseHandshakes;
+    }
+
+    /**
+     * Sets whether this server stops reading from its connections, so whatever
+     * clients write piles up until their sends block.
+     *
+     * @param stallReads Whether to stop reading.
+     */
+    public void setStallReads(boolean stallReads)
+    {
+        this.stallReads = stallReads;
+        if(!stallReads)
+        {
+            synchronized(stall)
+            {
+                stall.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sends only the first half of the next frame on each open connection,
+     * and nothing at all after it, as though Discord had hung mid-write.
+     * The connections stay open.
+     */
+    public void truncateNextFrame()
+    {
+        for(SocketClient client : clients)
+            client.truncateNext = true;
+    }
+
+    /**
+     * Closes every open connection without a {@link Packet.OpCode#CLOSE},
+     * as though Discord had crashed, while still listening for new ones.
+     */
+    public void dropConnections()
+    {
+        for(SocketClient client : clients)
+            client.session.close();
+    }
+
+    /**
+     * Sends a {@link Packet.OpCode#CLOSE} on every open connection and then closes it.
+     *
+     * @param code The close code, such as {@code 1000}.
+     * @param message The reason given.
+     */
+    public void sendClose(int code, String message)
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("code", code);
+        json.addProperty("message", message);
+        byte[] frame = new Packet(Packet.OpCode.CLOSE, json).toBytes();
+        for(SocketClient client : clients)
+        {
+            client.write(frame);
+            client.session.close();
+        }
+    }
+
+    @Override
+    public boolean isSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public List<String> getLocations()
+    {
+        return Collections.singletonList(socket.toString());
+    }
+
+    @Override
+    public Connection connect(String location) throws IOException
+    {
+        return new UnixPipe(location);
+    }
+
+    /**
+     * Stops this server and the thread sending delayed responses.
+     */
+    @Override
+    public void close()
+    {
+        stop();
+        delayer.shutdownNow();
+    }
+
+    private void accept(ServerSocketChannel channel)
+    {
+        while(channel.isOpen())
+        {
+            SocketChannel accepted;
+            try
+            {
+                accepted = channel.accept();
+            }
+            catch(IOException ex)
+            {
+                return; // stopped
+            }
+            SocketClient client = new SocketClient(accepted);
+            clients.add(client);
+            Thread reader = new Thread(client::read, "FakeDiscordServer Connection");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * @return Whether a frame is the response to a command, rather than an event or a PONG.
+     */
+    private static boolean isAck(byte[] frame)
+    {
+        if(Integer.reverseBytes(ByteBuffer.wrap(frame).getInt()) != Packet.OpCode.FRAME.ordinal())
+            return false;
+        String payload = new String(frame, 2 * Integer.BYTES, frame.length - 2 * Integer.BYTES, StandardCharsets.UTF_8);
+        JsonElement nonce = JsonParser.parseString(payload).getAsJsonObject().get("nonce");
+        return nonce != null && !nonce.isJsonNull();
+    }
+
+    private final class SocketClient implements FakeDiscord.Client
+    {
+        private final SocketChannel channel;
+        private final FakeDiscord.Session session;
+        private volatile boolean truncateNext = false;
+        private volatile boolean hung = false;
+        private boolean handshaken = false;
+
+        private SocketClient(SocketChannel channel)
+        {
+            this.channel = channel;
+            this.session = discord.open(this);
+        }
+
+        @Override
+        public void deliver(byte[] frame)
+        {
+            if((ackDelayNanos > 0 || dropAcks) && isAck(frame))
+            {
+                if(dropAcks)
+                    return;
+                delayer.schedule(() -> write(frame), ackDelayNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            write(frame);
+        }
+
+        @Override
+        public void disconnect()
+        {
+            clients.remove(this);
+            try
+            {
+                channel.close();
+            }
+            catch(IOException ex)
+            {
+                LOGGER.debug("Failed to close FakeDiscordServer connection", ex);
+            }
+        }
+
+        private synchronized void write(byte[] frame)
+        {
+            if(hung || !channel.isOpen())
+                return;
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            if(truncateNext)
+            {
+                buffer.limit(frame.length / 2);
+                hung = true;
+            }
+            try
+            {
+                while(buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+            catch(IOException ex)
+            {
+                LOGGER.debug("FakeDiscordServer failed to write to a connection", ex);
+            }
+        }
+
+        private void read()
+        {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES);
+            try
+            {
+                while(true)
+                {
+                    awaitUnstalled();
+                    header.clear();
+                    readFully(header);
+                    int size = Integer.reverseBytes(header.getInt(Integer.BYTES));
+                    ByteBuffer frame = ByteBuffer.allocate(2 * Integer.BYTES + size);
+                    frame.put(header.flip());
+                    readFully(frame);
+                    if(!handshaken && refuseHandshakes)
+                    {
+                        JsonObject error = new JsonObject();
+                        error.addProperty("code", 4000);
+                        error.addProperty("message", "Handshake refused");
+                        write(new Packet(Packet.OpCode.CLOSE, error).toBytes());
+                        session.close();
+                        return;
+                    }
+                    handshaken = true;
+                    session.receive(frame.array(), 0, frame.capacity());
+                }
+            }
+            catch(IOException | InterruptedException ex)
+            {
+                session.close();
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException
+        {
+            while(buffer.hasRemaining())
+                if(channel.read(buffer) < 0)
+                    throw new EOFException();
+        }
+
+        private void awaitUnstalled() throws InterruptedException
+        {
+            synchronized(stall)
+            {
+                while(stallReads && channel.isOpen())
+                    stall.wait(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Measures the round trip time of small frames echoed back over a pair of
+ * FIFOs through a {@link FileConnection}, once with blocking reads and once
+ * with the back-off used for Windows named pipes, and logs the results.<p>
+ *
+ * Needs {@code mkfifo}. Run it from the test classpath:
+ * <pre>{@code java com.jagrosh.discordipc.entities.pipe.FileConnectionBenchmark [frames]}</pre>
+ */
+public final class FileConnectionBenchmark
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileConnectionBenchmark.class);
+
+    private FileConnectionBenchmark() {}
+
+    /**
+     * @param args Optionally, how many frames to echo.
+     *
+     * @throws Exception If the FIFOs cannot be created.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        Path dir = Files.createTempDirectory("discord-ipc-fifo");
+        Path toServer = dir.resolve("c2s");
+        Path toClient = dir.resolve("s2c");
+        for(Path fifo : new Path[]{toServer, toClient})
+        {
+            Process mkfifo = new ProcessBuilder("mkfifo", fifo.toString()).inheritIO().start();
+            if(mkfifo.waitFor() != 0)
+                throw new IOException("mkfifo failed for " + fifo);
+        }
+        try
+        {
+            for(boolean blocking : new boolean[]{true, false})
+            {
+                long[] rtt = echo(toClient, toServer, blocking, frames);
+                Arrays.sort(rtt);
+                LOGGER.info(String.format("%-8s %d frames: p50 %.1f us, p99 %.1f us, max %.1f us",
+                        blocking ? "blocking" : "back-off", frames,
+                        rtt[rtt.length / 2] / 1e3, rtt[rtt.length * 99 / 100] / 1e3, rtt[rtt.length - 1] / 1e3));
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(toServer);
+            Files.deleteIfExists(toClient);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static long[] echo(Path in, Path out, boolean blocking, int frames) throws Exception
+    {
+        Thread server = new Thread(() -> {
+            // opened in the opposite order to the client's, or both sides would wait forever
+            try(FileInputStream requests = new FileInputStream(out.toFile());
+                FileOutputStream responses = new FileOutputStream(in.toFile());
+                FileConnection echo = new FileConnection(requests.getChannel(), responses.getChannel(), null))
+            {
+                byte[] header = new byte[2 * Integer.BYTES];
+                while(true)
+                {
+                    echo.readFully(header);
+                    byte[] payload = new byte[Integer.reverseBytes(ByteBuffer.wrap(header).getInt(Integer.BYTES))];
+                    echo.readFully(payload);
+                    echo.write(header);
+                    echo.write(payload);
+                }
+            }
+            catch(IOException ignored) {}
+        }, "FIFO Echo");
+        server.setDaemon(true);
+        server.start();
+
+        byte[] frame = new byte[2 * Integer.BYTES + 64];
+        ByteBuffer.wrap(frame).putInt(0).putInt(Integer.reverseBytes(64));
+        byte[] response = new byte[frame.length];
+        long[] rtt = new long[frames];
+        try(FileConnection client = FileConnection.open(in, out, blocking))
+        {
+            for(int i = 0; i < frames; i++)
+            {
+                long start = System.nanoTime();
+                client.write(frame);
+                client.readFully(response);
+                rtt[i] = System.nanoTime() - start;
+            }
+        }
+        server.join();
+        return rtt;
+    }
+}
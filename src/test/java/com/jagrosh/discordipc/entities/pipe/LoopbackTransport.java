@@ -0,0 +1,155 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.AsynchronousCloseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A {@link Transport} connecting to a {@link FakeDiscord} in the same process,
+ * without any socket, named pipe or extra thread in between.<p>
+ *
+ * Written frames are handled by the FakeDiscord on the writing thread, and its
+ * responses are queued until the {@link Pipe} reads them.
+ */
+public class LoopbackTransport implements Transport
+{
+    /**
+     * The only location a LoopbackTransport offers.
+     */
+    public static final String LOCATION = "loopback";
+
+    private static final byte[] EOF = new byte[0];
+
+    private final FakeDiscord discord;
+
+    /**
+     * Constructs a LoopbackTransport connecting to the given FakeDiscord.
+     *
+     * @param discord The FakeDiscord to connect to.
+     */
+    public LoopbackTransport(FakeDiscord discord)
+    {
+        this.discord = discord;
+    }
+
+    @Override
+    public boolean isSupported()
+    {
+        return true;
+    }
+
+    @Override
+    public List<String> getLocations()
+    {
+        return Collections.singletonList(LOCATION);
+    }
+
+    @Override
+    public Connection connect(String location) throws IOException
+    {
+        if(!LOCATION.equals(location))
+            throw new IOException("No FakeDiscord at " + location);
+        return new LoopbackConnection();
+    }
+
+    private class LoopbackConnection implements Connection, FakeDiscord.Client
+    {
+        private final BlockingQueue<byte[]> inbound = new LinkedBlockingQueue<>();
+        private final FakeDiscord.Session session;
+        private volatile boolean closed = false;
+        private byte[] chunk = null;
+        private int offset = 0;
+
+        private LoopbackConnection()
+        {
+            this.session = discord.open(this);
+        }
+
+        @Override
+        public void deliver(byte[] frame)
+        {
+            if(frame.length > 0)
+                inbound.add(frame);
+        }
+
+        @Override
+        public void disconnect()
+        {
+            inbound.add(EOF);
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException
+        {
+            int read = 0;
+            while(read < b.length)
+            {
+                if(chunk == null || offset == chunk.length)
+                {
+                    try
+                    {
+                        chunk = inbound.take();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new AsynchronousCloseException();
+                    }
+                    offset = 0;
+                    if(closed)
+                        throw new AsynchronousCloseException();
+                    if(chunk == EOF)
+                    {
+                        // leave the marker in place so later reads fail the same way
+                        inbound.add(EOF);
+                        throw new EOFException();
+                    }
+                }
+                int n = Math.min(b.length - read, chunk.length - offset);
+                System.arraycopy(chunk, offset, b, read, n);
+                offset += n;
+                read += n;
+            }
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException
+        {
+            if(closed)
+                throw new AsynchronousCloseException();
+            if(!session.isOpen())
+                throw new IOException("FakeDiscord closed the connection");
+            session.receive(b, 0, b.length);
+        }
+
+        @Override
+        public void close()
+        {
+            if(closed)
+                return;
+            closed = true;
+            // wakes a pending read, which then sees the connection was closed locally
+            inbound.add(EOF);
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PipeTest
+{
+    @Test
+    void sendAllFramesEveryPayloadIntoOneWrite() throws IOException
+    {
+        ScriptedConnection connection = new ScriptedConnection();
+        Map<String, Callback> callbacks = new ConcurrentHashMap<>();
+        Pipe pipe = new Pipe(new IPCClient(1L), PipeMetrics.NONE, callbacks, connection);
+
+        List<JsonObject> payloads = new ArrayList<>();
+        for(String evt : new String[]{"ACTIVITY_JOIN", "ACTIVITY_SPECTATE", "ACTIVITY_JOIN_REQUEST"})
+        {
+            JsonObject payload = new JsonObject();
+            payload.addProperty("cmd", "SUBSCRIBE");
+            payload.addProperty("evt", evt);
+            payloads.add(payload);
+        }
+        pipe.sendAll(OpCode.FRAME, payloads, Arrays.asList(new Callback(p -> {}), null, new Callback(p -> {})));
+
+        assertEquals(1, connection.writes);
+        ByteBuffer written = ByteBuffer.wrap(connection.written.toByteArray());
+        for(JsonObject payload : payloads)
+        {
+            assertEquals(OpCode.FRAME.ordinal(), Integer.reverseBytes(written.getInt()));
+            byte[] json = new byte[Integer.reverseBytes(written.getInt())];
+            written.get(json);
+            JsonObject frame = JsonParser.parseString(new String(json, StandardCharsets.UTF_8)).getAsJsonObject();
+            assertEquals(payload.get("evt"), frame.get("evt"));
+            assertNotNull(frame.get("nonce"));
+        }
+        assertFalse(written.hasRemaining());
+        // only the frames with a callback wait for a response
+        assertEquals(2, callbacks.size());
+        assertTrue(callbacks.containsKey(payloads.get(0).get("nonce").getAsString()));
+        assertTrue(callbacks.containsKey(payloads.get(2).get("nonce").getAsString()));
+    }
+
+    @Test
+    void readDecodesConsecutiveFramesAsUtf8() throws IOException
+    {
+        JsonObject first = new JsonObject();
+        first.addProperty("cmd", "DISPATCH");
+        first.addProperty("evt", "READY");
+        JsonObject second = new JsonObject();
+        second.addProperty("cmd", "SET_ACTIVITY");
+        second.addProperty("state", "Caf\u00e9 \u2615 \ud83c\udfae");
+
+        ScriptedConnection connection = new ScriptedConnection(
+                new Packet(OpCode.FRAME, first).toBytes(), new Packet(OpCode.PONG, second).toBytes());
+        Pipe pipe = new Pipe(new IPCClient(1L), PipeMetrics.NONE, new ConcurrentHashMap<>(), connection);
+        pipe.setStatus(PipeStatus.CONNECTED);
+
+        Packet p = pipe.read();
+        assertEquals(OpCode.FRAME, p.getOp());
+        assertEquals(first, p.getJson());
+        p = pipe.read();
+        assertEquals(OpCode.PONG, p.getOp());
+        assertEquals(second, p.getJson());
+
+        assertThrows(EOFException.class, pipe::read);
+        assertEquals(PipeStatus.DISCONNECTED, pipe.getStatus());
+    }
+
+    @Test
+    void failedWriteFailsCallbacksOnTheCallbackExecutor()
+    {
+        ScriptedConnection connection = new ScriptedConnection();
+        connection.broken = true;
+        RecordingMetrics metrics = new RecordingMetrics();
+        Map<String, Callback> callbacks = new ConcurrentHashMap<>();
+        Pipe pipe = new Pipe(new IPCClient(1L), metrics, callbacks, connection);
+        List<Runnable> executed = new ArrayList<>();
+        pipe.setCallbackExecutor(executed::add);
+
+        List<String> failures = new ArrayList<>();
+        JsonObject presence = new JsonObject();
+        presence.addProperty("cmd", "SET_ACTIVITY");
+        JsonObject subscribe = new JsonObject();
+        subscribe.addProperty("cmd", "SUBSCRIBE");
+        pipe.sendAll(OpCode.FRAME, Arrays.asList(presence, subscribe),
+                Arrays.asList(new Callback(p -> fail(), failures::add), new Callback(p -> fail(), failures::add)));
+
+        // nothing runs on the writing thread
+        assertTrue(failures.isEmpty());
+        assertEquals(2, executed.size());
+        executed.forEach(Runnable::run);
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0).contains("broken"));
+
+        assertTrue(callbacks.isEmpty());
+        assertEquals(PipeStatus.DISCONNECTED, pipe.getStatus());
+        // only the lost presence counts as a dropped update
+        assertEquals(1, metrics.droppedUpdates);
+        assertEquals(0, metrics.outbound);
+    }
+
+    /**
+     * A connection reading from frames given up front and keeping what is written.
+     */
+    private static final class ScriptedConnection implements Transport.Connection
+    {
+        private final ByteBuffer inbound;
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private int writes = 0;
+        private boolean broken = false;
+
+        private ScriptedConnection(byte[]... frames)
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for(byte[] frame : frames)
+                bytes.writeBytes(frame);
+            inbound = ByteBuffer.wrap(bytes.toByteArray());
+        }
+
+        @Override
+        public void readFully(byte[] b) throws IOException
+        {
+            if(inbound.remaining() < b.length)
+                throw new EOFException();
+            inbound.get(b);
+        }
+
+        @Override
+        public void write(byte[] b) throws IOException
+        {
+            if(broken)
+                throw new IOException("Pipe is broken");
+            writes++;
+            written.writeBytes(b);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    private static final class RecordingMetrics implements PipeMetrics
+    {
+        private int outbound = 0;
+        private int droppedUpdates = 0;
+
+        @Override
+        public void recordOutbound(OpCode op, int bytes)
+        {
+            outbound++;
+        }
+
+        @Override
+        public void recordInbound(OpCode op, int bytes) {}
+
+        @Override
+        public void recordCommandSent(String nonce, String cmd) {}
+
+        @Override
+        public void recordDroppedUpdate()
+        {
+            droppedUpdates++;
+        }
+
+        @Override
+        public void recordDiscoveryProbe(int outcome, long nanos) {}
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.IPCListener;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.exceptions.NoDiscordClientException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures, over a real socket to a {@link FakeDiscordServer}, how long an
+ * {@link IPCClient} takes to notice each kind of failure and how long it takes
+ * to show its presence again once Discord is back, and logs the results.<p>
+ *
+ * Run it from the test classpath:
+ * <pre>{@code java com.jagrosh.discordipc.entities.pipe.ReconnectBenchmark [rounds]}</pre>
+ */
+public final class ReconnectBenchmark
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReconnectBenchmark.class);
+    private static final long LIVENESS_TIMEOUT_MS = 100;
+
+    private ReconnectBenchmark() {}
+
+    /**
+     * @param args Optionally, how many times to inject each fault.
+     *
+     * @throws Exception If the socket cannot be created.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        Path dir = Files.createTempDirectory("discord-ipc-faults");
+        try(FakeDiscordServer server = new FakeDiscordServer(new FakeDiscord(), dir.resolve("discord-ipc-0")))
+        {
+            server.start();
+            // dropped or delayed acks are left out, as Discord still answers the probe and nothing is lost
+            measure(server, "dropped connection", rounds, FakeDiscordServer::dropConnections, s -> {});
+            measure(server, "CLOSE received", rounds, s -> s.sendClose(1000, "Bye"), s -> {});
+            measure(server, "truncated frame", rounds, s -> {
+                s.truncateNextFrame();
+                s.getDiscord().dispatch("ACTIVITY_JOIN", new JsonObject());
+            }, s -> {});
+            measure(server, "stalled reads", rounds, s -> s.setStallReads(true), s -> s.setStallReads(false));
+            measure(server, "Discord restarted", rounds, FakeDiscordServer::stop, s -> {
+                try
+                {
+                    s.start();
+                }
+                catch(IOException ex)
+                {
+                    throw new UncheckedIOException(ex);
+                }
+            });
+        }
+        finally
+        {
+            Files.deleteIfExists(dir.resolve("discord-ipc-0"));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void measure(FakeDiscordServer server, String name, int rounds,
+                                Consumer<FakeDiscordServer> inject, Consumer<FakeDiscordServer> heal) throws Exception
+    {
+        long[] detect = new long[rounds];
+        long[] restore = new long[rounds];
+        RichPresence presence = new RichPresence.Builder().setState("Benchmarking").setDetails(name).build();
+        for(int i = 0; i < rounds; i++)
+        {
+            CompletableFuture<Long> lost = new CompletableFuture<>();
+            IPCClient client = new IPCClient(1L);
+            client.setTransport(server);
+            client.setLivenessTimeout(LIVENESS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            client.setListener(new IPCListener()
+            {
+                @Override
+                public void onClose(IPCClient client, JsonElement json)
+                {
+                    lost.complete(System.nanoTime());
+                }
+
+                @Override
+                public void onDisconnect(IPCClient client, Throwable t)
+                {
+                    lost.complete(System.nanoTime());
+                }
+            });
+            client.connect();
+            client.subscribe(IPCClient.Event.ACTIVITY_JOIN);
+            awaitAck(client, presence);
+
+            long injected = System.nanoTime();
+            inject.accept(server);
+            try
+            {
+                // a fault only seen on use needs something to be sent
+                client.sendRichPresence(presence);
+            }
+            catch(IllegalStateException noticedAlready) {}
+            detect[i] = lost.get(10, TimeUnit.SECONDS) - injected;
+
+            long healed = System.nanoTime();
+            heal.accept(server);
+            while(true)
+            {
+                try
+                {
+                    client.connect();
+                    break;
+                }
+                catch(NoDiscordClientException ex)
+                {
+                    Thread.sleep(1);
+                }
+            }
+            awaitAck(client, presence);
+            restore[i] = System.nanoTime() - healed;
+            client.close();
+        }
+        Arrays.sort(detect);
+        Arrays.sort(restore);
+        LOGGER.info(String.format("%-18s detect p50 %6.1f ms, max %6.1f ms | restore p50 %6.2f ms, max %6.2f ms", name,
+                detect[rounds / 2] / 1e6, detect[rounds - 1] / 1e6, restore[rounds / 2] / 1e6, restore[rounds - 1] / 1e6));
+    }
+
+    private static void awaitAck(IPCClient client, RichPresence presence) throws Exception
+    {
+        CompletableFuture<Void> acked = new CompletableFuture<>();
+        client.sendRichPresence(presence, new Callback(p -> acked.complete(null), m -> acked.completeExceptionally(new IOException(m))));
+        acked.get(10, TimeUnit.SECONDS);
+    }
+}
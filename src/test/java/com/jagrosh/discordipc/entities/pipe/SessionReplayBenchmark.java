@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.pipe.SessionRecorder.Direction;
+import com.jagrosh.discordipc.entities.pipe.SessionReplay.Frame;
+import com.jagrosh.discordipc.entities.pipe.SessionReplay.Pace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Decodes the inbound frames of a {@link SessionRecorder} capture at full
+ * speed and logs the throughput, to benchmark the read path against real traffic.<p>
+ *
+ * Run it from the test classpath:
+ * <pre>{@code java com.jagrosh.discordipc.entities.pipe.SessionReplayBenchmark <capture> [iterations]}</pre>
+ */
+public final class SessionReplayBenchmark
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionReplayBenchmark.class);
+
+    private SessionReplayBenchmark() {}
+
+    /**
+     * @param args The capture file, and optionally how many times to decode it.
+     *
+     * @throws IOException If the capture cannot be read.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if(args.length == 0)
+        {
+            LOGGER.error("Usage: SessionReplayBenchmark <capture> [iterations]");
+            System.exit(1);
+        }
+        SessionReplay replay = new SessionReplay(Path.of(args[0]));
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        long bytes = 0;
+        int frames = 0;
+        for(Frame frame : replay)
+        {
+            if(frame.getDirection() == Direction.INBOUND)
+            {
+                bytes += frame.getPayload().length + 2 * Integer.BYTES;
+                frames++;
+            }
+        }
+        // one untimed pass to warm up
+        replay.replay(Direction.INBOUND, Pace.MAX, p -> {});
+
+        long start = System.nanoTime();
+        for(int i = 0; i < iterations; i++)
+            replay.replay(Direction.INBOUND, Pace.MAX, p -> {});
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        LOGGER.info(String.format("Decoded %d inbound frames (%d bytes) %d times in %.3f s: %.0f frames/s, %.2f MiB/s",
+                frames, bytes, iterations, seconds,
+                frames * iterations / seconds, bytes * iterations / seconds / (1024 * 1024)));
+    }
+}